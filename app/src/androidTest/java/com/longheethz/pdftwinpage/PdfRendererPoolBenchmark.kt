@@ -0,0 +1,89 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.pdf.PdfDocument
+import android.graphics.pdf.PdfRenderer
+import android.os.ParcelFileDescriptor
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import org.junit.Assert.*
+
+/**
+ * Pages per second rendered through a [PdfRendererPool] at different pool sizes.
+ * Results are printed to logcat; compare them across devices rather than asserting.
+ */
+@RunWith(AndroidJUnit4::class)
+class PdfRendererPoolBenchmark {
+
+    private val pageCount = 24
+
+    @Test
+    fun pagesPerSecondByPoolSize() {
+        val pdfFile = writeTestPdf()
+        val opener = { ParcelFileDescriptor.open(pdfFile, ParcelFileDescriptor.MODE_READ_ONLY) }
+
+        for (poolSize in 1..4) {
+            val pool = PdfRendererPool(opener, poolSize)
+            val executor = Executors.newFixedThreadPool(poolSize)
+
+            val start = System.nanoTime()
+            for (pageIndex in 0 until pageCount) {
+                executor.execute {
+                    val bitmap = Bitmap.createBitmap(1190, 1684, Bitmap.Config.ARGB_8888)
+                    pool.withRenderer { pdf ->
+                        pdf.openPage(pageIndex).use { page ->
+                            page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)
+                        }
+                    }
+                    bitmap.recycle()
+                }
+            }
+            executor.shutdown()
+            assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES))
+            val seconds = (System.nanoTime() - start) / 1_000_000_000.0
+            pool.close()
+
+            println("DEBUG: Renderer pool size $poolSize: ${String.format("%.1f", pageCount / seconds)} pages/s")
+        }
+
+        pdfFile.delete()
+    }
+
+    // Dense vector pages, roughly what a page of sheet music costs to render
+    private fun writeTestPdf(): File {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val file = File(context.cacheDir, "renderer_pool_benchmark.pdf")
+        val document = PdfDocument()
+        val paint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+            color = Color.BLACK
+            strokeWidth = 0.7f
+            textSize = 9f
+        }
+
+        for (pageIndex in 0 until pageCount) {
+            val page = document.startPage(PdfDocument.PageInfo.Builder(595, 842, pageIndex).create())
+            val canvas = page.canvas
+            for (line in 0 until 80) {
+                val y = 20f + line * 10f
+                canvas.drawLine(20f, y, 575f, y, paint)
+                canvas.drawText("Page ${pageIndex + 1} line $line of the renderer pool benchmark", 24f, y - 1f, paint)
+                for (note in 0 until 30) {
+                    canvas.drawCircle(30f + note * 18f, y - 3f, 2.5f, paint)
+                }
+            }
+            document.finishPage(page)
+        }
+
+        file.outputStream().use { document.writeTo(it) }
+        document.close()
+        return file
+    }
+}
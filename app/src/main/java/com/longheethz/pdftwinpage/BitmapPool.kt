@@ -0,0 +1,66 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.Bitmap
+
+/**
+ * Reuses page bitmaps instead of allocating a new one on every page turn.
+ *
+ * Bitmaps are bucketed by exact width, height and config, since a rendered page
+ * has to fill the whole buffer. Free bitmaps beyond [maxBytes] are dropped.
+ */
+class BitmapPool(private val maxBytes: Long) {
+
+    private data class Bucket(val width: Int, val height: Int, val config: Bitmap.Config)
+
+    private val buckets = HashMap<Bucket, ArrayDeque<Bitmap>>()
+    private var pooledBytes = 0L
+
+    var allocationCount = 0L
+        private set
+    var reuseCount = 0L
+        private set
+
+    /** Returns a mutable bitmap of the requested shape, filled with [fillColor]. */
+    fun acquire(width: Int, height: Int, config: Bitmap.Config, fillColor: Int): Bitmap {
+        val reused = synchronized(this) {
+            buckets[Bucket(width, height, config)]?.removeLastOrNull()?.also { bitmap ->
+                pooledBytes -= bitmap.allocationByteCount
+                reuseCount++
+            }
+        }
+
+        val bitmap = reused ?: Bitmap.createBitmap(width, height, config).also {
+            synchronized(this) { allocationCount++ }
+        }
+        bitmap.eraseColor(fillColor)
+        return bitmap
+    }
+
+    /** Hands [bitmap] back for reuse. The caller must not touch it afterwards. */
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        if (bitmap.isRecycled || !bitmap.isMutable) return
+
+        val size = bitmap.allocationByteCount
+        if (pooledBytes + size > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+
+        val config = bitmap.config ?: return
+        buckets.getOrPut(Bucket(bitmap.width, bitmap.height, config)) { ArrayDeque() }.addLast(bitmap)
+        pooledBytes += size
+    }
+
+    @Synchronized
+    fun clear() {
+        buckets.values.forEach { bucket -> bucket.forEach { it.recycle() } }
+        buckets.clear()
+        pooledBytes = 0
+    }
+
+    @Synchronized
+    fun stats(): String {
+        return "allocations=$allocationCount reuses=$reuseCount pooledBytes=$pooledBytes/$maxBytes"
+    }
+}
@@ -2,10 +2,47 @@ package com.longheethz.pdftwinpage;
 
 import android.bluetooth.BluetoothSocket;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Owns the session's links from the moment they connect until they are closed: the
+ * transports, and once the reader opens, the {@link SyncHub} running them. The
+ * activities only hand sockets in and never touch their streams. All background work
+ * here and in the sync classes runs on the shared {@link SyncIo} pool.
+ */
 public class BluetoothConnectionManager {
+
+    /** Told about every client the server accepts while a session is open. */
+    public interface OnTransportAddedListener {
+        void onTransportAdded(SyncTransport transport);
+    }
+
+    /** Opens a new link to the device we were connected to, e.g. a fresh RFCOMM socket. */
+    public interface Dialer {
+        SyncTransport dial() throws IOException;
+    }
+
+    // Reconnect backoff: doubles from the first delay up to the cap
+    private static final long RECONNECT_FIRST_DELAY_MS = 500;
+    private static final long RECONNECT_MAX_DELAY_MS = 30_000;
+
     private static BluetoothConnectionManager instance;
-    private BluetoothSocket bluetoothSocket;
+    // A client has one transport, to the server; the server one per client
+    private final List<SyncTransport> transports = new ArrayList<>();
     private boolean isServer;
+    private OnTransportAddedListener onTransportAdded;
+    // Client only: how to reach the server again after the link drops
+    private Dialer dialer;
+    private Future<?> reconnectTask;
+    // Identifies the current reconnect run, so a stopped one can tell it is stale
+    private Object reconnectToken;
+    // The open session's links, null while no reader is showing
+    private SyncHub hub;
+    // The reader closed the session; links arriving late are turned away until the next one
+    private boolean sessionEnded;
 
     private BluetoothConnectionManager() {}
 
@@ -17,19 +54,223 @@ public class BluetoothConnectionManager {
     }
 
     public void setBluetoothConnection(BluetoothSocket socket, boolean isServer) {
-        this.bluetoothSocket = socket;
+        setConnection(new BluetoothSyncTransport(socket), isServer);
+    }
+
+    // Any transport works here; MainActivity never sees the socket itself
+    public synchronized void setConnection(SyncTransport transport, boolean isServer) {
+        transports.clear();
+        transports.add(transport);
         this.isServer = isServer;
+        sessionEnded = false;
+    }
+
+    /** Starts a server session with no clients yet. */
+    public synchronized void startServer() {
+        transports.clear();
+        isServer = true;
+        sessionEnded = false;
+    }
+
+    /** Adds a client the server just accepted, and hands it to an open session. */
+    public void addBluetoothConnection(BluetoothSocket socket) {
+        addConnection(new BluetoothSyncTransport(socket));
+    }
+
+    public void addConnection(SyncTransport transport) {
+        OnTransportAddedListener listener;
+        boolean ended;
+        synchronized (this) {
+            ended = sessionEnded;
+            if (!ended) {
+                transports.removeIf(existing -> !existing.isConnected());
+                transports.add(transport);
+            }
+            listener = onTransportAdded;
+        }
+        if (ended) {
+            // Nobody would read it; its heartbeats would fail and it would redial forever
+            System.out.println("DEBUG: Session closed, dropping " + transport.describe());
+            closeQuietly(transport);
+            return;
+        }
+        if (listener != null) {
+            listener.onTransportAdded(transport);
+        }
+    }
+
+    public synchronized void setOnTransportAddedListener(OnTransportAddedListener listener) {
+        this.onTransportAdded = listener;
+    }
+
+    /** Remembers how to reach the server, so a dropped client link can be redialed. */
+    public synchronized void setDialer(Dialer dialer) {
+        this.dialer = dialer;
+    }
+
+    /**
+     * Client only: keeps redialing the server in the background, with exponential
+     * backoff, until a link is up again. The new transport is handed to the
+     * {@link OnTransportAddedListener} like any other. Does nothing if already running.
+     */
+    public synchronized void reconnect() {
+        if (isServer || sessionEnded || dialer == null || reconnectToken != null) {
+            return;
+        }
+        Dialer target = dialer;
+        Object token = new Object();
+        reconnectToken = token;
+        reconnectTask = SyncIo.run("SyncReconnect", () -> redial(target, token));
+    }
+
+    public void stopReconnecting() {
+        Future<?> running;
+        synchronized (this) {
+            running = reconnectTask;
+            reconnectTask = null;
+            reconnectToken = null;
+        }
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    public synchronized boolean isReconnecting() {
+        return reconnectToken != null;
+    }
+
+    private void redial(Dialer target, Object token) {
+        long start = System.nanoTime();
+        long delay = RECONNECT_FIRST_DELAY_MS;
+        int attempt = 0;
+        try {
+            while (true) {
+                Thread.sleep(delay);
+                synchronized (this) {
+                    if (reconnectToken != token) {
+                        return; // Stopped
+                    }
+                }
+                attempt++;
+                try {
+                    SyncTransport transport = target.dial();
+                    System.out.println("DEBUG: Reconnected to " + transport.describe() + " after " + attempt
+                            + " attempts in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                    synchronized (this) {
+                        if (reconnectToken != token) {
+                            transport.close(); // Stopped while dialing
+                            return;
+                        }
+                        reconnectToken = null;
+                        reconnectTask = null;
+                    }
+                    addConnection(transport);
+                    return;
+                } catch (IOException e) {
+                    System.out.println("DEBUG: Reconnect attempt " + attempt + " failed: " + e.getMessage()
+                            + ", next in " + Math.min(delay * 2, RECONNECT_MAX_DELAY_MS) + "ms");
+                }
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (IOException e) {
+            System.out.println("DEBUG: Error closing late reconnect: " + e.getMessage());
+        }
+    }
+
+    /** The first transport; on a client the only one. */
+    public synchronized SyncTransport getTransport() {
+        return transports.isEmpty() ? null : transports.get(0);
+    }
+
+    public synchronized List<SyncTransport> getTransports() {
+        return new ArrayList<>(transports);
+    }
+
+    public synchronized int connectedCount() {
+        int count = 0;
+        for (SyncTransport transport : transports) {
+            if (transport.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts the session's hub, replacing any earlier one. The caller adds the
+     * transports to it and hears about their frames through {@code listener}.
+     */
+    public SyncHub startHub(int writeCapacity, SyncHub.Listener listener) {
+        SyncHub previous;
+        SyncHub started;
+        synchronized (this) {
+            previous = hub;
+            hub = new SyncHub(writeCapacity, isServer, listener);
+            started = hub;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        return started;
+    }
+
+    public synchronized SyncHub getHub() {
+        return hub;
+    }
+
+    /**
+     * Ends the session the reader was showing: stops reconnecting and closes the links
+     * once their queued frames are out.
+     */
+    public void closeSession() {
+        stopReconnecting();
+        SyncHub closing;
+        synchronized (this) {
+            closing = hub;
+            hub = null;
+            onTransportAdded = null;
+            if (closing != null) {
+                sessionEnded = true;
+            }
+        }
+        if (closing != null) {
+            closing.close();
+        }
+    }
+
+    /** Closes every transport right away, e.g. when the server stops. */
+    public void closeAll() {
+        closeSession();
+        List<SyncTransport> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(transports);
+            transports.clear();
+        }
+        for (SyncTransport transport : closing) {
+            closeQuietly(transport);
+        }
+    }
+
+    private static void closeQuietly(SyncTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            System.out.println("DEBUG: Error closing " + transport.describe() + ": " + e.getMessage());
+        }
     }
 
-    public BluetoothSocket getBluetoothSocket() {
-        return bluetoothSocket;
+    /** Whether the reader closed the session, so the pairing screen should stop serving it. */
+    public synchronized boolean isSessionEnded() {
+        return sessionEnded;
     }
 
-    public boolean isServer() {
+    public synchronized boolean isServer() {
         return isServer;
     }
 
     public boolean isConnected() {
-        return bluetoothSocket != null && bluetoothSocket.isConnected();
+        return connectedCount() > 0;
     }
-}
\ No newline at end of file
+}
@@ -12,6 +12,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import androidx.activity.result.ActivityResultLauncher;
@@ -21,13 +22,10 @@ import android.Manifest;
 import java.util.Set;
 import java.util.UUID;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import android.os.Handler;
-import android.os.Looper;
 import android.app.AlertDialog;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class BluetoothPairingActivity extends AppCompatActivity {
 
@@ -36,19 +34,30 @@ public class BluetoothPairingActivity extends AppCompatActivity {
     private Button toggleButton;
     private Button serverButton;
     private Button connectButton;
+    private Button quickConnectButton;
     private Button openPdfButton;
 
     // Connection management
     private BluetoothDevice pairedDevice;
-    private BluetoothSocket bluetoothSocket;
     private BluetoothServerSocket serverSocket;
-    private ConnectedThread connectedThread;
     private ServerThread serverThread;
-    private boolean isServer = false;
+    // Read by the server loop on the I/O pool
+    private volatile boolean isServer = false;
+    // Quick Connect in progress
+    private LinkRace linkRace;
+    // When the user (or auto-connect) started setting up the current link
+    private long setupStartNanos;
+    private SharedPreferences preferences;
 
     // Standard UUID for SPP (Serial Port Profile)
     private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
     private static final String SERVICE_NAME = "PDFReaderSync";
+    // Quick Connect has its own service, so a plain server or client never sees its handshake
+    private static final UUID QUICK_UUID = UUID.fromString("6f1c2a4e-93b5-4d0e-8a7c-5e2b91d3f047");
+    private static final String QUICK_SERVICE_NAME = "PDFReaderQuickConnect";
+    // Auto-connect as a client tries a little longer; the server may be launching too
+    private static final int AUTO_CONNECT_ATTEMPTS = 5;
+    private static final long AUTO_CONNECT_RETRY_MS = 1000;
 
     // Activity result launchers
     private ActivityResultLauncher<Intent> bluetoothEnableLauncher;
@@ -57,12 +66,15 @@ public class BluetoothPairingActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.mark("onCreate");
         setContentView(R.layout.activity_bluetooth_pairing);
+        preferences = getSharedPreferences(SettingsActivity.PREFS_NAME, MODE_PRIVATE);
 
         statusText = findViewById(R.id.statusText);
         toggleButton = findViewById(R.id.toggleButton);
         serverButton = findViewById(R.id.serverButton);
         connectButton = findViewById(R.id.connectButton);
+        quickConnectButton = findViewById(R.id.quickConnectButton);
         openPdfButton = findViewById(R.id.openPdfButton);
 
         // Initialize Bluetooth
@@ -128,7 +140,8 @@ public class BluetoothPairingActivity extends AppCompatActivity {
             if (isServer) {
                 stopServer();
             } else {
-                startServer();
+                setupStartNanos = System.nanoTime();
+                startServer(true);
             }
         });
 
@@ -136,16 +149,35 @@ public class BluetoothPairingActivity extends AppCompatActivity {
             if (isConnected()) {
                 disconnect();
             } else {
+                setupStartNanos = System.nanoTime();
                 connectToPairedDevice();
             }
         });
 
+        quickConnectButton.setOnClickListener(v -> {
+            if (linkRace != null) {
+                cancelQuickConnect();
+            } else {
+                setupStartNanos = System.nanoTime();
+                quickConnect();
+            }
+        });
+        // Long press picks a device even when one is remembered
+        quickConnectButton.setOnLongClickListener(v -> {
+            if (linkRace == null) {
+                setupStartNanos = System.nanoTime();
+                pickPairedDevice(this::startQuickConnect);
+            }
+            return true;
+        });
+
         openPdfButton.setOnClickListener(v -> openPdfReader());
 
         // Initial setup
         if (hasBluetoothPermissions()) {
             updateStatus();
             updateButtons();
+            autoConnect();
         } else {
             statusText.setText("Bluetooth permissions required");
             toggleButton.setText("Grant Permissions");
@@ -155,9 +187,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
 
     private void openPdfReader() {
         if (isConnected()) {
-            // Store connection in singleton
-            BluetoothConnectionManager.getInstance().setBluetoothConnection(bluetoothSocket, isServer);
-
+            // The links are already in the manager, MainActivity picks them up there
             Intent intent = new Intent(this, MainActivity.class);
             startActivity(intent);
         } else {
@@ -165,7 +195,55 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         }
     }
 
-    private void startServer() {
+    /**
+     * Fast path on launch: goes straight back to the last session's peer, in the same
+     * role, without enumerating bonded devices or asking anything.
+     */
+    private void autoConnect() {
+        LastSession last = LastSession.load(preferences);
+        if (last == null || !preferences.getBoolean(SettingsActivity.AUTO_CONNECT_KEY, true)) {
+            return;
+        }
+        try {
+            if (!bluetoothAdapter.isEnabled() || isConnected() || isServer || linkRace != null) {
+                return;
+            }
+        } catch (SecurityException e) {
+            return;
+        }
+
+        System.out.println("DEBUG: Auto-connecting to last session: " + last);
+        StartupTrace.mark("autoConnect");
+        setupStartNanos = System.nanoTime();
+        switch (last.role) {
+            case LastSession.ROLE_SERVER:
+                // Already paired, so no need to be discoverable
+                startServer(false);
+                break;
+            case LastSession.ROLE_CLIENT:
+                connectToSelectedDevice(bluetoothAdapter.getRemoteDevice(last.address), AUTO_CONNECT_ATTEMPTS);
+                break;
+            case LastSession.ROLE_QUICK:
+                startQuickConnect(bluetoothAdapter.getRemoteDevice(last.address));
+                break;
+        }
+    }
+
+    // Every successful link ends here, whichever way it was made
+    private void onLinkReady(BluetoothDevice device, String role) {
+        long setupMs = (System.nanoTime() - setupStartNanos) / 1_000_000;
+        String name;
+        try {
+            name = device.getName();
+        } catch (SecurityException e) {
+            name = null;
+        }
+        LastSession.save(preferences, device.getAddress(), name, role, setupMs);
+        StartupTrace.finish("connected");
+        System.out.println("DEBUG: Link ready as " + role + " " + setupMs + "ms after setup started");
+    }
+
+    private void startServer(boolean discoverable) {
         System.out.println("DEBUG: Starting Bluetooth server...");
 
         if (!hasBluetoothPermissions()) {
@@ -179,22 +257,25 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         }
 
         // Make device discoverable with proper permission handling
-        try {
-            Intent discoverableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
-            discoverableIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, 300); // 5 minutes
-            startActivity(discoverableIntent);
-        } catch (SecurityException e) {
-            System.out.println("DEBUG: SecurityException making device discoverable: " + e.getMessage());
-            Toast.makeText(this, "Permission denied for making device discoverable", Toast.LENGTH_LONG).show();
-            // Don't return here - we can still start the server without making it discoverable
-            // The user can manually make the device discoverable through system settings
-            statusText.setText("⚠️ Starting server without discoverable mode\nOther devices may need to manually find this device");
+        if (discoverable) {
+            try {
+                Intent discoverableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
+                discoverableIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, 300); // 5 minutes
+                startActivity(discoverableIntent);
+            } catch (SecurityException e) {
+                System.out.println("DEBUG: SecurityException making device discoverable: " + e.getMessage());
+                Toast.makeText(this, "Permission denied for making device discoverable", Toast.LENGTH_LONG).show();
+                // Don't return here - we can still start the server without making it discoverable
+                // The user can manually make the device discoverable through system settings
+                statusText.setText("⚠️ Starting server without discoverable mode\nOther devices may need to manually find this device");
+            }
         }
 
         isServer = true;
+        BluetoothConnectionManager.getInstance().startServer();
         statusText.setText("🔵 Starting server...");
 
-        serverThread = new ServerThread();
+        serverThread = new ServerThread(true);
         serverThread.start();
 
         updateButtons();
@@ -204,6 +285,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         System.out.println("DEBUG: Stopping server...");
 
         isServer = false;
+        BluetoothConnectionManager.getInstance().closeAll();
 
         if (serverThread != null) {
             serverThread.cancel();
@@ -225,9 +307,17 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         updateButtons();
     }
 
-    // Server thread to listen for incoming connections
-    private class ServerThread extends Thread {
-        public ServerThread() {
+    // Listens for incoming connections on the shared I/O pool
+    private class ServerThread implements Runnable {
+        // Off when Quick Connect already linked us and this only takes reconnects and more clients
+        private final boolean announce;
+
+        public ServerThread(boolean announce) {
+            this.announce = announce;
+        }
+
+        public void start() {
+            SyncIo.run("BluetoothServer", this);
         }
 
         public void run() {
@@ -235,30 +325,34 @@ public class BluetoothPairingActivity extends AppCompatActivity {
                 System.out.println("DEBUG: Creating server socket...");
                 serverSocket = bluetoothAdapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, SPP_UUID);
 
-                runOnUiThread(() -> {
-                    statusText.setText("🟢 Server listening...\nWaiting for incoming connections\nOther device can now connect to this phone");
-                    Toast.makeText(BluetoothPairingActivity.this, "Server started - waiting for connections", Toast.LENGTH_LONG).show();
-                });
+                if (announce) {
+                    runOnUiThread(() -> {
+                        statusText.setText("🟢 Server listening...\nWaiting for incoming connections\nOther device can now connect to this phone");
+                        Toast.makeText(BluetoothPairingActivity.this, "Server started - waiting for connections", Toast.LENGTH_LONG).show();
+                    });
+                }
 
                 System.out.println("DEBUG: Server socket created, waiting for connection...");
 
-                // This is a blocking call - it will wait until a connection is made
-                BluetoothSocket socket = serverSocket.accept();
+                // Keep accepting, every client gets its own pages of the spread
+                while (isServer) {
+                    // This is a blocking call - it will wait until a connection is made
+                    BluetoothSocket socket = serverSocket.accept();
 
-                System.out.println("DEBUG: Incoming connection accepted!");
+                    System.out.println("DEBUG: Incoming connection accepted!");
+                    // Also reaches an open PDF Reader, which links it right away
+                    BluetoothConnectionManager.getInstance().addBluetoothConnection(socket);
+                    int clients = BluetoothConnectionManager.getInstance().connectedCount();
 
-                runOnUiThread(() -> {
-                    bluetoothSocket = socket;
-                    statusText.setText("✅ Device connected!\nReady to open PDF Reader");
-                    Toast.makeText(BluetoothPairingActivity.this, "Device connected! You can now open PDF Reader.", Toast.LENGTH_LONG).show();
-
-                    // Create a dummy connected thread just to satisfy isConnected() check
-                    // But don't actually listen for messages (MainActivity will do that)
-                    connectedThread = new ConnectedThread(bluetoothSocket);
-                    // Don't start the thread! Just create it for the null check
-
-                    updateButtons();
-                });
+                    runOnUiThread(() -> {
+                        if (announce) {
+                            onLinkReady(socket.getRemoteDevice(), LastSession.ROLE_SERVER);
+                        }
+                        statusText.setText("✅ " + clients + (clients == 1 ? " device" : " devices") + " connected!\nReady to open PDF Reader");
+                        Toast.makeText(BluetoothPairingActivity.this, "Device connected! You can now open PDF Reader.", Toast.LENGTH_LONG).show();
+                        updateButtons();
+                    });
+                }
 
             } catch (SecurityException e) {
                 System.out.println("DEBUG: SecurityException in server: " + e.getMessage());
@@ -293,6 +387,10 @@ public class BluetoothPairingActivity extends AppCompatActivity {
     }
 
     private void connectToSelectedDevice(BluetoothDevice device) {
+        connectToSelectedDevice(device, 1);
+    }
+
+    private void connectToSelectedDevice(BluetoothDevice device, int attempts) {
         try {
             String deviceName = device.getName();
             String deviceAddress = device.getAddress();
@@ -304,26 +402,39 @@ public class BluetoothPairingActivity extends AppCompatActivity {
             connectButton.setEnabled(false);
 
             // Connect in background thread
-            new Thread(() -> {
+            SyncIo.run("BluetoothConnect", () -> {
                 try {
-                    System.out.println("DEBUG: Creating RFCOMM socket...");
-                    bluetoothSocket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+                    BluetoothSocket socket;
+                    for (int attempt = 1; ; attempt++) {
+                        System.out.println("DEBUG: Creating RFCOMM socket...");
+                        socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
 
-                    System.out.println("DEBUG: Attempting to connect...");
-                    bluetoothSocket.connect();
+                        System.out.println("DEBUG: Attempting to connect...");
+                        try {
+                            socket.connect();
+                            break;
+                        } catch (IOException e) {
+                            if (attempt >= attempts) {
+                                throw e;
+                            }
+                            System.out.println("DEBUG: Connect attempt " + attempt + " failed: " + e.getMessage());
+                            socket.close();
+                            Thread.sleep(AUTO_CONNECT_RETRY_MS);
+                        }
+                    }
 
                     System.out.println("DEBUG: Connection successful!");
+                    // The manager owns the link from here on, this screen never touches its streams
+                    BluetoothConnectionManager.getInstance().setBluetoothConnection(socket, false);
+                    // So a link that drops while reading can be brought back without this screen
+                    BluetoothConnectionManager.getInstance().setDialer(() -> dial(device));
 
                     runOnUiThread(() -> {
                         try {
                             String deviceName1 = device.getName();
                             statusText.setText("✅ Connected to: " + (deviceName1 != null ? deviceName1 : "Unknown Device") + "\nReady to open PDF Reader");
                             Toast.makeText(BluetoothPairingActivity.this, "Connected! You can now open PDF Reader.", Toast.LENGTH_LONG).show();
-
-                            // Create a dummy connected thread just to satisfy isConnected() check
-                            connectedThread = new ConnectedThread(bluetoothSocket);
-                            // Don't start the thread! Just create it for the null check
-
+                            onLinkReady(device, LastSession.ROLE_CLIENT);
                             updateButtons();
 
                         } catch (SecurityException e) {
@@ -331,6 +442,8 @@ public class BluetoothPairingActivity extends AppCompatActivity {
                         }
                     });
 
+                } catch (InterruptedException e) {
+                    System.out.println("DEBUG: Connecting interrupted");
                 } catch (SecurityException e) {
                     System.out.println("DEBUG: SecurityException during connection: " + e.getMessage());
                     runOnUiThread(() -> {
@@ -346,7 +459,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
                         updateButtons();
                     });
                 }
-            }).start();
+            });
 
         } catch (SecurityException e) {
             System.out.println("DEBUG: SecurityException getting device info: " + e.getMessage());
@@ -355,7 +468,18 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         }
     }
 
-    private void showDeviceSelectionDialog(List<BluetoothDevice> devices) {
+    // A fresh RFCOMM socket to the server, for reconnecting in the background
+    private static SyncTransport dial(BluetoothDevice device) throws IOException {
+        try {
+            BluetoothSocket socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+            socket.connect();
+            return new BluetoothSyncTransport(socket);
+        } catch (SecurityException e) {
+            throw new IOException("Permission denied", e);
+        }
+    }
+
+    private void showDeviceSelectionDialog(List<BluetoothDevice> devices, Consumer<BluetoothDevice> onPicked) {
         try {
             // Create display names for the devices
             String[] deviceNames = new String[devices.size()];
@@ -370,7 +494,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
             builder.setTitle("Select Device to Connect")
                     .setItems(deviceNames, (dialog, which) -> {
                         pairedDevice = devices.get(which);
-                        connectToSelectedDevice(pairedDevice);
+                        onPicked.accept(pairedDevice);
                     })
                     .setNegativeButton("Cancel", (dialog, which) -> {
                         dialog.dismiss();
@@ -384,6 +508,10 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         }
     }
     private void connectToPairedDevice() {
+        pickPairedDevice(this::connectToSelectedDevice);
+    }
+
+    private void pickPairedDevice(Consumer<BluetoothDevice> onPicked) {
         System.out.println("DEBUG: Looking for paired devices...");
 
         if (!hasBluetoothPermissions()) {
@@ -409,10 +537,10 @@ public class BluetoothPairingActivity extends AppCompatActivity {
             if (pairedDevices.size() == 1) {
                 // Only one device, connect directly
                 pairedDevice = pairedDevices.iterator().next();
-                connectToSelectedDevice(pairedDevice);
+                onPicked.accept(pairedDevice);
             } else {
                 // Multiple devices, show selection dialog
-                showDeviceSelectionDialog(new ArrayList<>(pairedDevices));
+                showDeviceSelectionDialog(new ArrayList<>(pairedDevices), onPicked);
             }
 
         } catch (SecurityException e) {
@@ -422,94 +550,186 @@ public class BluetoothPairingActivity extends AppCompatActivity {
         }
     }
 
-    private void disconnect() {
-        System.out.println("DEBUG: Disconnecting...");
+    // Straight to the last session's peer, whatever role we had; the picker only when there is none
+    private void quickConnect() {
+        LastSession last = LastSession.load(preferences);
+        if (last == null || !BluetoothAdapter.checkBluetoothAddress(last.address)) {
+            pickPairedDevice(this::startQuickConnect);
+            return;
+        }
 
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        if (!hasBluetoothPermissions()) {
+            Toast.makeText(this, "Bluetooth permissions required", Toast.LENGTH_SHORT).show();
+            return;
         }
+        if (!bluetoothAdapter.isEnabled()) {
+            Toast.makeText(this, "Bluetooth must be enabled first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        startQuickConnect(bluetoothAdapter.getRemoteDevice(last.address));
+    }
 
-        if (bluetoothSocket != null) {
-            try {
-                bluetoothSocket.close();
-            } catch (IOException e) {
-                System.out.println("DEBUG: Error closing socket: " + e.getMessage());
-            }
-            bluetoothSocket = null;
+    // Listens and dials the picked device at once; see LinkRace
+    private void startQuickConnect(BluetoothDevice device) {
+        String deviceName;
+        try {
+            deviceName = device.getName();
+        } catch (SecurityException e) {
+            deviceName = null;
         }
+        String name = deviceName != null ? deviceName : "Unknown Device";
+        System.out.println("DEBUG: Quick Connect with " + name);
+        statusText.setText("🔵 Quick Connect with: " + name + "\n\nTap Quick Connect on the other device too");
 
-        pairedDevice = null;
+        linkRace = new LinkRace(new BluetoothRaceEndpoint(device), (transport, server, setupNanos) -> runOnUiThread(() -> {
+            linkRace = null;
+            onQuickConnected(device, name, ((BluetoothSyncTransport) transport).getSocket(), server);
+        }));
+        linkRace.start();
+        updateButtons();
+    }
 
-        if (isServer) {
-            statusText.setText("🟢 Server listening...\nWaiting for incoming connections");
+    private void onQuickConnected(BluetoothDevice device, String name, BluetoothSocket socket, boolean server) {
+        long setupMs = (System.nanoTime() - setupStartNanos) / 1_000_000;
+        System.out.println("DEBUG: Quick Connect ready as " + (server ? "server" : "client") + " " + setupMs + "ms after the tap");
+        onLinkReady(device, LastSession.ROLE_QUICK);
+
+        if (server) {
+            isServer = true;
+            BluetoothConnectionManager.getInstance().startServer();
+            BluetoothConnectionManager.getInstance().addBluetoothConnection(socket);
+            // Plain server from here on, so the other device can reconnect and more can join
+            serverThread = new ServerThread(false);
+            serverThread.start();
         } else {
-            statusText.setText("Disconnected");
-            Toast.makeText(this, "Disconnected", Toast.LENGTH_SHORT).show();
+            BluetoothConnectionManager.getInstance().setBluetoothConnection(socket, false);
+            pairedDevice = device;
+            BluetoothConnectionManager.getInstance().setDialer(() -> dial(device));
         }
 
+        statusText.setText("✅ Connected to: " + name + " as " + (server ? "server" : "client") + " in " + setupMs + "ms\nReady to open PDF Reader");
+        Toast.makeText(this, "Connected! You can now open PDF Reader.", Toast.LENGTH_LONG).show();
         updateButtons();
     }
 
-    private boolean isConnected() {
-        return bluetoothSocket != null && bluetoothSocket.isConnected();
+    private void cancelQuickConnect() {
+        if (linkRace != null) {
+            linkRace.cancel();
+            linkRace = null;
+        }
+        statusText.setText("Quick Connect cancelled");
+        updateButtons();
     }
 
-    // Thread for managing Bluetooth connection
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket socket;
-        private final InputStream inputStream;
-        private final OutputStream outputStream;
-        private final Handler handler;
-
-        public ConnectedThread(BluetoothSocket socket) {
-            this.socket = socket;
-            this.handler = new Handler(Looper.getMainLooper());
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
+    // Quick Connect's side of the race: its own RFCOMM service, both as listener and dialer
+    private class BluetoothRaceEndpoint implements LinkRace.Endpoint {
+        private final BluetoothDevice device;
+        private BluetoothServerSocket listener; // Guarded by this
+        private BluetoothSocket dialing; // Guarded by this
+        private boolean cancelled = false; // Guarded by this
 
-            try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
-            } catch (IOException e) {
-                System.out.println("DEBUG: Error creating streams: " + e.getMessage());
-            }
-
-            inputStream = tmpIn;
-            outputStream = tmpOut;
+        BluetoothRaceEndpoint(BluetoothDevice device) {
+            this.device = device;
         }
 
-        public void run() {
-            System.out.println("DEBUG: ConnectedThread in BTPA - not listening (MainActivity will handle messages)");
-            // Don't listen for messages here - MainActivity will handle all communication
-            // Just keep the thread alive to maintain connection state
-            try {
-                Thread.sleep(Long.MAX_VALUE); // Keep thread alive but inactive
-            } catch (InterruptedException e) {
-                System.out.println("DEBUG: BTPA ConnectedThread interrupted");
+        @Override
+        public SyncTransport accept() throws IOException {
+            BluetoothServerSocket socket;
+            synchronized (this) {
+                if (cancelled) {
+                    throw new IOException("Cancelled");
+                }
+                try {
+                    if (listener == null) {
+                        listener = bluetoothAdapter.listenUsingRfcommWithServiceRecord(QUICK_SERVICE_NAME, QUICK_UUID);
+                    }
+                } catch (SecurityException e) {
+                    throw new IOException("Permission denied", e);
+                }
+                socket = listener;
             }
+            return new BluetoothSyncTransport(socket.accept());
         }
 
-        public void write(byte[] bytes) {
+        @Override
+        public SyncTransport dial() throws IOException {
+            BluetoothSocket socket;
+            synchronized (this) {
+                if (cancelled) {
+                    throw new IOException("Cancelled");
+                }
+                try {
+                    socket = device.createRfcommSocketToServiceRecord(QUICK_UUID);
+                } catch (SecurityException e) {
+                    throw new IOException("Permission denied", e);
+                }
+                dialing = socket;
+            }
             try {
-                outputStream.write(bytes);
-            } catch (IOException e) {
-                System.out.println("DEBUG: Error writing data: " + e.getMessage());
+                socket.connect();
+            } catch (SecurityException e) {
+                throw new IOException("Permission denied", e);
+            }
+            synchronized (this) {
+                dialing = null;
             }
+            return new BluetoothSyncTransport(socket);
         }
 
+        @Override
         public void cancel() {
+            BluetoothServerSocket closingListener;
+            BluetoothSocket closingDial;
+            synchronized (this) {
+                cancelled = true;
+                closingListener = listener;
+                closingDial = dialing;
+                listener = null;
+                dialing = null;
+            }
             try {
-                socket.close();
+                if (closingListener != null) {
+                    closingListener.close();
+                }
+                if (closingDial != null) {
+                    closingDial.close();
+                }
             } catch (IOException e) {
-                System.out.println("DEBUG: Error closing connected socket: " + e.getMessage());
+                System.out.println("DEBUG: Error closing Quick Connect sockets: " + e.getMessage());
             }
         }
     }
 
+    private void disconnect() {
+        System.out.println("DEBUG: Disconnecting...");
+
+        // Leaving on purpose, so nothing should dial back in
+        BluetoothConnectionManager.getInstance().setDialer(null);
+        BluetoothConnectionManager.getInstance().closeAll();
+
+        pairedDevice = null;
+
+        if (isServer) {
+            statusText.setText("🟢 Server listening...\nWaiting for incoming connections");
+        } else {
+            statusText.setText("Disconnected");
+            Toast.makeText(this, "Disconnected", Toast.LENGTH_SHORT).show();
+        }
+
+        updateButtons();
+    }
+
+    private boolean isConnected() {
+        return BluetoothConnectionManager.getInstance().isConnected();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        // Leaving the reader ended the session; stop taking clients nobody would read
+        if (isServer && BluetoothConnectionManager.getInstance().isSessionEnded()) {
+            stopServer();
+        }
         if (bluetoothAdapter != null && hasBluetoothPermissions()) {
             updateStatus();
             updateButtons();
@@ -519,6 +739,9 @@ public class BluetoothPairingActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (linkRace != null) {
+            linkRace.cancel();
+        }
         stopServer();
         disconnect();
     }
@@ -526,6 +749,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
     private void disableAllButtons() {
         serverButton.setEnabled(false);
         connectButton.setEnabled(false);
+        quickConnectButton.setEnabled(false);
         openPdfButton.setEnabled(false);
     }
 
@@ -588,7 +812,7 @@ public class BluetoothPairingActivity extends AppCompatActivity {
                 } else if (isServer) {
                     statusText.setText("🟢 Server mode active\nWaiting for connections...");
                 } else {
-                    statusText.setText("Bluetooth is enabled\n\n📱 First time setup:\n1. Install this app on another device\n2. Pair devices in Bluetooth settings\n\n💡 Choose mode:\n• 'Start Server' - let other device connect to you\n• 'Select Device' - connect to a paired device");
+                    statusText.setText("Bluetooth is enabled\n\n📱 First time setup:\n1. Install this app on another device\n2. Pair devices in Bluetooth settings\n\n💡 Choose mode:\n• 'Start Server' - let other device connect to you\n• 'Select Device' - connect to a paired device\n• 'Quick Connect' - tap on both devices, no roles to pick");
                     // statusText.setText("Bluetooth is enabled\n\n💡 Choose mode:\n• 'Start Server' - let other device connect to you\n• 'Connect' - connect to paired device");
                 }
             } else {
@@ -637,6 +861,9 @@ public class BluetoothPairingActivity extends AppCompatActivity {
                     }
                 }
 
+                quickConnectButton.setText(linkRace != null ? "Cancel Quick Connect" : "Quick Connect");
+                quickConnectButton.setEnabled(linkRace != null || (!isServer && !isConnected()));
+
                 openPdfButton.setEnabled(isConnected());
 
             } else {
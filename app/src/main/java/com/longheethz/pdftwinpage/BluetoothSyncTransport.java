@@ -0,0 +1,50 @@
+package com.longheethz.pdftwinpage;
+
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** {@link SyncTransport} over a connected RFCOMM socket. */
+public class BluetoothSyncTransport implements SyncTransport {
+
+    private final BluetoothSocket socket;
+
+    public BluetoothSyncTransport(BluetoothSocket socket) {
+        this.socket = socket;
+    }
+
+    public BluetoothSocket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public String describe() {
+        try {
+            return "bluetooth " + socket.getRemoteDevice().getAddress();
+        } catch (SecurityException e) {
+            return "bluetooth";
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
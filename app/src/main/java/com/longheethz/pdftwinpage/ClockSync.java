@@ -0,0 +1,105 @@
+package com.longheethz.pdftwinpage;
+
+/**
+ * Estimates the offset between this device's clock and the peer's, NTP style.
+ *
+ * Each exchange yields four timestamps: t0 when we sent a TIME_REQUEST, t1 and t2
+ * when the peer received it and answered (peer clock), and t3 when the answer
+ * arrived. Queueing only ever adds delay, so of the last few samples the one with
+ * the smallest round trip is trusted; the spread of the others is reported as jitter.
+ * All timestamps are monotonic nanoseconds (elapsedRealtimeNanos on the device).
+ */
+public class ClockSync {
+
+    private static final class Sample {
+        final long offset;
+        final long roundTrip;
+
+        Sample(long offset, long roundTrip) {
+            this.offset = offset;
+            this.roundTrip = roundTrip;
+        }
+    }
+
+    private final Sample[] window;
+    private int count = 0;
+    private int next = 0;
+    private long samplesTotal = 0;
+
+    // Derived from the window after every sample
+    private long offsetNanos = 0;
+    private long roundTripNanos = -1;
+    private long jitterNanos = 0;
+
+    public ClockSync(int windowSize) {
+        window = new Sample[windowSize];
+    }
+
+    /** Adds one request/response exchange. */
+    public synchronized void addSample(long t0, long t1, long t2, long t3) {
+        long roundTrip = (t3 - t0) - (t2 - t1);
+        if (roundTrip < 0) {
+            return; // Clock went backwards or a corrupt reply
+        }
+        long offset = ((t1 - t0) + (t2 - t3)) / 2;
+        window[next] = new Sample(offset, roundTrip);
+        next = (next + 1) % window.length;
+        count = Math.min(count + 1, window.length);
+        samplesTotal++;
+        update();
+    }
+
+    public synchronized boolean hasEstimate() {
+        return count > 0;
+    }
+
+    /** Peer clock minus local clock. */
+    public synchronized long offsetNanos() {
+        return offsetNanos;
+    }
+
+    /** Round trip of the sample the offset comes from, or -1 before the first sample. */
+    public synchronized long roundTripNanos() {
+        return roundTripNanos;
+    }
+
+    /** RMS deviation of the window's offsets from the chosen one. */
+    public synchronized long jitterNanos() {
+        return jitterNanos;
+    }
+
+    public synchronized long toLocalTime(long peerTime) {
+        return peerTime - offsetNanos;
+    }
+
+    public synchronized long toPeerTime(long localTime) {
+        return localTime + offsetNanos;
+    }
+
+    public synchronized String stats() {
+        if (count == 0) {
+            return "no samples";
+        }
+        return "offset=" + offsetNanos / 1000 + "us rtt=" + roundTripNanos / 1000
+                + "us jitter=" + jitterNanos / 1000 + "us samples=" + samplesTotal;
+    }
+
+    // Must hold the lock
+    private void update() {
+        Sample best = null;
+        for (int i = 0; i < count; i++) {
+            if (best == null || window[i].roundTrip < best.roundTrip) {
+                best = window[i];
+            }
+        }
+        offsetNanos = best.offset;
+        roundTripNanos = best.roundTrip;
+
+        double sumSquares = 0;
+        for (int i = 0; i < count; i++) {
+            double deviation = window[i].offset - best.offset;
+            sumSquares += deviation * deviation;
+        }
+        jitterNanos = (long) Math.sqrt(sumSquares / count);
+    }
+}
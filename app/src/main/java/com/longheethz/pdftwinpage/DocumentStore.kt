@@ -0,0 +1,273 @@
+package com.longheethz.pdftwinpage
+
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.SequenceInputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.concurrent.ScheduledFuture
+
+/**
+ * Content-addressed copies of opened PDFs under [directory], named by their SHA-256.
+ *
+ * The hash is computed while the single copy is written, so storing costs no extra
+ * pass. Each entry also has a quick key (size + hash of the first [HEAD_BYTES]) that
+ * lets a repeat open find the stored copy after reading only the head of the source.
+ * Entries are evicted least recently used first once the store exceeds [maxBytes].
+ * Lookups only bump the use time in memory; the index is written on import and
+ * eviction, and a few seconds after the last lookup otherwise.
+ */
+class DocumentStore(private val directory: File, private val maxBytes: Long) {
+
+    data class Entry(
+        val hash: String,
+        val size: Long,
+        val quickKey: String,
+        val name: String,
+        val lastUsed: Long
+    )
+
+    private val indexFile = File(directory, "index.txt")
+    private val entries = LinkedHashMap<String, Entry>()
+    private var pendingSave: ScheduledFuture<*>? = null
+
+    init {
+        directory.mkdirs()
+        loadIndex()
+    }
+
+    fun fileFor(entry: Entry): File = File(directory, "${entry.hash}.pdf")
+
+    /** Where a document being received from the other device is assembled. Kept across sessions for resume. */
+    fun partialFileFor(hash: String): File = File(directory, "$hash.part")
+
+    /** Which blocks of [partialFileFor] are already filled in, for resuming out-of-order transfers. */
+    fun blockMapFileFor(hash: String): File = File(directory, "$hash.have")
+
+    /** Looks up a document by its full content hash. */
+    @Synchronized
+    fun find(hash: String): Entry? {
+        val entry = entries[hash] ?: return null
+        if (!fileFor(entry).exists()) {
+            forget(entry)
+            return null
+        }
+        return touch(entry)
+    }
+
+    /** The most recently used document stored under [name] other than [exceptHash], e.g. an older revision. */
+    @Synchronized
+    fun findByName(name: String, exceptHash: String): Entry? {
+        val entry = entries.values
+            .filter { it.name == name && it.hash != exceptHash }
+            .maxByOrNull { it.lastUsed } ?: return null
+        return find(entry.hash)
+    }
+
+    /** Looks up a document by size and head bytes, without reading the rest of it. */
+    @Synchronized
+    fun findQuick(size: Long, head: ByteArray, headLength: Int): Entry? {
+        val key = quickKey(size, head, headLength)
+        val entry = entries.values.firstOrNull { it.quickKey == key } ?: return null
+        return find(entry.hash)
+    }
+
+    /**
+     * Copies [input] into the store, hashing it on the way, and returns its entry.
+     * If the same content is already stored the new copy is simply dropped.
+     */
+    fun importStream(input: InputStream, name: String): Entry {
+        val temp = File.createTempFile("import", ".tmp", directory)
+        try {
+            val digest = MessageDigest.getInstance("SHA-256")
+            val head = ByteArray(HEAD_BYTES)
+            var headLength = 0
+            var size = 0L
+
+            DigestInputStream(input, digest).use { hashing ->
+                temp.outputStream().use { output ->
+                    val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                    while (true) {
+                        val read = hashing.read(buffer)
+                        if (read < 0) break
+                        if (headLength < HEAD_BYTES) {
+                            val take = minOf(read, HEAD_BYTES - headLength)
+                            System.arraycopy(buffer, 0, head, headLength, take)
+                            headLength += take
+                        }
+                        output.write(buffer, 0, read)
+                        size += read
+                    }
+                }
+            }
+
+            val hash = digest.digest().toHex()
+            val entry = Entry(hash, size, quickKey(size, head, headLength), name.replace('\t', ' '), System.currentTimeMillis())
+            return add(entry, temp)
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * Opens [input] for a repeat-aware import: reads only the head first and returns
+     * the stored entry if the quick key matches, otherwise copies the whole stream.
+     * [size] is the source size if known, or -1.
+     */
+    fun importOrFind(input: InputStream, size: Long, name: String): Entry {
+        val head = ByteArray(HEAD_BYTES)
+        val headLength = readHead(input, head)
+
+        if (size >= 0) {
+            findQuick(size, head, headLength)?.let { return it }
+        }
+        return importStream(SequenceInputStream(head.inputStream(0, headLength), input), name)
+    }
+
+    /**
+     * Hashes [input] into an entry without storing it, for a document opened in place
+     * whose bytes are read from where they already are.
+     */
+    fun describe(input: InputStream, name: String): Entry {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val head = ByteArray(HEAD_BYTES)
+        var headLength = 0
+        var size = 0L
+
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        while (true) {
+            val read = input.read(buffer)
+            if (read < 0) break
+            if (headLength < HEAD_BYTES) {
+                val take = minOf(read, HEAD_BYTES - headLength)
+                System.arraycopy(buffer, 0, head, headLength, take)
+                headLength += take
+            }
+            digest.update(buffer, 0, read)
+            size += read
+        }
+        return Entry(digest.digest().toHex(), size, quickKey(size, head, headLength), name.replace('\t', ' '), System.currentTimeMillis())
+    }
+
+    /**
+     * Stores a completely received [partialFileFor] file, after checking it really
+     * hashes to [hash]. A file that doesn't match is deleted.
+     */
+    fun adoptPartial(hash: String, name: String): Entry {
+        val part = partialFileFor(hash)
+        val entry = part.inputStream().use { describe(it, name) }
+        if (entry.hash != hash) {
+            part.delete()
+            throw IOException("Received $name doesn't match its hash")
+        }
+        try {
+            return add(entry, part)
+        } finally {
+            part.delete() // Only still there if the store already had this document
+            blockMapFileFor(hash).delete()
+        }
+    }
+
+    /** Writes out use times that lookups have changed since the index was last saved. */
+    @Synchronized
+    fun flush() {
+        if (pendingSave != null) saveIndex()
+    }
+
+    @Synchronized
+    fun totalBytes(): Long = entries.values.sumOf { it.size }
+
+    @Synchronized
+    private fun add(entry: Entry, temp: File): Entry {
+        val target = fileFor(entry)
+        if (!target.exists() && !temp.renameTo(target)) {
+            throw IOException("Could not store ${entry.name}")
+        }
+        entries[entry.hash] = entry
+        evict(keep = entry.hash)
+        saveIndex()
+        return entry
+    }
+
+    private fun touch(entry: Entry): Entry {
+        val touched = entry.copy(lastUsed = System.currentTimeMillis())
+        entries[entry.hash] = touched
+        // Lookups come in bursts, sometimes on a sync reader, so don't rewrite the index for each one
+        if (pendingSave == null) {
+            pendingSave = SyncIo.after("DocumentIndex", SAVE_DELAY_MS) { flush() }
+        }
+        return touched
+    }
+
+    private fun forget(entry: Entry) {
+        entries.remove(entry.hash)
+        fileFor(entry).delete()
+        saveIndex()
+    }
+
+    private fun evict(keep: String) {
+        var total = entries.values.sumOf { it.size }
+        for (entry in entries.values.sortedBy { it.lastUsed }) {
+            if (total <= maxBytes) break
+            if (entry.hash == keep) continue
+            entries.remove(entry.hash)
+            fileFor(entry).delete()
+            total -= entry.size
+        }
+    }
+
+    private fun loadIndex() {
+        if (!indexFile.exists()) return
+        try {
+            indexFile.forEachLine { line ->
+                val fields = line.split('\t')
+                if (fields.size == 5) {
+                    val entry = Entry(fields[0], fields[1].toLong(), fields[2], fields[4], fields[3].toLong())
+                    if (fileFor(entry).exists()) entries[entry.hash] = entry
+                }
+            }
+        } catch (e: Exception) {
+            // A broken index only costs us the shortcut; the next import rebuilds it
+            println("DEBUG: Ignoring unreadable document index: ${e.message}")
+            entries.clear()
+        }
+    }
+
+    private fun saveIndex() {
+        pendingSave?.cancel(false)
+        pendingSave = null
+        val temp = File(directory, "index.txt.tmp")
+        temp.bufferedWriter().use { writer ->
+            for (entry in entries.values) {
+                writer.write("${entry.hash}\t${entry.size}\t${entry.quickKey}\t${entry.lastUsed}\t${entry.name}\n")
+            }
+        }
+        temp.renameTo(indexFile)
+    }
+
+    companion object {
+        const val HEAD_BYTES = 64 * 1024
+        const val DEFAULT_MAX_BYTES = 512L * 1024 * 1024
+        private const val SAVE_DELAY_MS = 5_000L
+
+        /** Fills [head] from the start of [input], or as much of it as the input has, and returns how much that was. */
+        fun readHead(input: InputStream, head: ByteArray): Int {
+            var headLength = 0
+            while (headLength < head.size) {
+                val read = input.read(head, headLength, head.size - headLength)
+                if (read < 0) break
+                headLength += read
+            }
+            return headLength
+        }
+
+        fun quickKey(size: Long, head: ByteArray, headLength: Int): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            digest.update(head, 0, headLength)
+            return "$size-${digest.digest().toHex()}"
+        }
+
+        private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,599 @@
+package com.longheethz.pdftwinpage
+
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.BitSet
+import java.util.zip.CRC32
+
+/**
+ * Pushes a document, stored or opened in place, to the other device over the sync
+ * link, and assembles documents pushed to us into the [DocumentStore].
+ *
+ * The sender offers the document by its SHA-256. A receiver that already stores it
+ * opens it right away. Otherwise the receiver answers with the blocks it still needs
+ * (DOC_NEED), and the sender streams just those as DOC_CHUNK frames of [CHUNK_BYTES],
+ * each with a CRC32. When the receiver holds an older revision under the same name,
+ * it first asks for per-block hashes and copies every block that didn't change from
+ * its own copy, rsync style, so only the edited blocks cross the link.
+ *
+ * The receiver acknowledges every chunk frame and the sender keeps at most
+ * [WINDOW_CHUNKS] unacknowledged, enough to keep RFCOMM busy without burying page
+ * turns behind the transfer. A bad chunk is simply needed again. Blocks are written
+ * in place and tracked in a block map next to the partial file, so after a
+ * disconnect the next offer of the same document only asks for what's missing.
+ */
+class DocumentTransfer(
+    private val storeProvider: () -> DocumentStore,
+    private val encoder: SyncCodec.Encoder,
+    private val listener: Listener
+) {
+
+    interface Listener {
+        fun onProgress(sending: Boolean, name: String, bytesDone: Long, totalBytes: Long, bytesPerSecond: Long)
+        fun onReceived(entry: DocumentStore.Entry)
+        fun onFailed(sending: Boolean, name: String, message: String)
+    }
+
+    private class Outgoing(val entry: DocumentStore.Entry, val open: () -> FileChannel) {
+        val chunkCount = chunkCount(entry.size, CHUNK_BYTES)
+        var transferId = 0L // New for every offer, so chunks from an older one are recognizable
+        var needed = IntArray(0) // Chunks the receiver asked for, in sending order
+        var position = 0 // Next entry of needed to send
+        var framesSent = 0L
+        var framesAcked = 0L
+        var window = 0 // 0 until the receiver answers the offer
+        var finished = false
+        var cancelled = false
+        var startNanos = 0L
+        var lastProgressNanos = 0L
+    }
+
+    private class Incoming(
+        val transferId: Long,
+        val hash: String,
+        val size: Long,
+        val chunkBytes: Int,
+        val name: String,
+        val file: RandomAccessFile,
+        val have: BitSet
+    ) {
+        val chunkCount = chunkCount(size, chunkBytes)
+        val startNanos = System.nanoTime()
+        val startChunks = have.cardinality()
+        var framesReceived = 0L
+        var chunksSinceSave = 0
+        var lastProgressNanos = 0L
+
+        fun isComplete() = have.cardinality() == chunkCount
+    }
+
+    private val store by lazy(storeProvider)
+    private val lock = Object()
+
+    // Guarded by lock
+    private var connection: SyncConnection? = null
+    private var outgoing: Outgoing? = null
+    private var nextTransferId = 1L
+    private val controlPayload = SyncCodec.PayloadWriter()
+
+    // Guarded by receiveLock; taken on the reader thread and by the delta thread
+    private val receiveLock = Object()
+    private var incoming: Incoming? = null
+    private var receiveBuffer = ByteArray(CHUNK_BYTES)
+    private val receiveCrc = CRC32()
+    private val receivePayload = SyncCodec.PayloadWriter()
+
+    /** Starts using [link]. Call before the link starts reading. */
+    fun attach(link: SyncConnection) {
+        synchronized(lock) {
+            connection = link
+        }
+    }
+
+    /**
+     * Sends [entry] to the other device, replacing any upload in progress. Its bytes are
+     * read through [open], the stored copy unless the document lives somewhere else.
+     */
+    fun offer(entry: DocumentStore.Entry, open: () -> FileChannel = { RandomAccessFile(store.fileFor(entry), "r").channel }) {
+        val out = Outgoing(entry, open)
+        synchronized(lock) {
+            outgoing?.cancelled = true
+            outgoing = out
+            lock.notifyAll()
+            sendOffer(out)
+        }
+        SyncIo.run("DocumentSender") { sendLoop(out) }
+    }
+
+    /** Handles a DOC_* frame on the reader thread. Returns false for any other type. */
+    fun handleFrame(type: Int, payload: SyncCodec.PayloadReader): Boolean {
+        when (type) {
+            SyncCodec.TYPE_DOC_OFFER -> onOffer(payload)
+            SyncCodec.TYPE_DOC_NEED -> onNeed(payload)
+            SyncCodec.TYPE_DOC_CHUNK -> onChunk(payload)
+            SyncCodec.TYPE_DOC_ACK -> onAck(payload.readVarint(), payload.readVarint())
+            SyncCodec.TYPE_DOC_COMPLETE -> onComplete(payload.readVarint(), payload.readInt() == 1)
+            SyncCodec.TYPE_DOC_HASHES_REQUEST -> onHashesRequest(payload.readVarint())
+            SyncCodec.TYPE_DOC_BLOCK_HASHES -> onBlockHashes(payload)
+            else -> return false
+        }
+        return true
+    }
+
+    /**
+     * The link is gone. An unfinished upload stops and a partial download stays on disk,
+     * so [offer]ing the document again over the next link only sends what's missing.
+     */
+    fun close() {
+        synchronized(lock) {
+            outgoing?.cancelled = true
+            connection = null
+            lock.notifyAll()
+        }
+        synchronized(receiveLock) { closeIncoming() }
+    }
+
+    // Sending side
+
+    // Must hold lock
+    private fun sendOffer(out: Outgoing) {
+        out.transferId = nextTransferId++
+        out.needed = IntArray(0)
+        out.position = 0
+        out.framesSent = 0
+        out.framesAcked = 0
+        out.window = 0
+        lock.notifyAll()
+
+        val link = connection ?: return
+        controlPayload.reset()
+        controlPayload.writeVarint(out.transferId)
+        controlPayload.writeVarint(out.entry.size)
+        controlPayload.writeVarint(CHUNK_BYTES.toLong())
+        controlPayload.writeString(out.entry.hash)
+        controlPayload.writeString(out.entry.name)
+        link.send(encoder.encode(SyncCodec.TYPE_DOC_OFFER, controlPayload))
+        println("DEBUG: Offered ${out.entry.name} (${out.entry.size} bytes) to the other device")
+    }
+
+    // Reads and sends needed chunks while the window allows, on its own thread
+    private fun sendLoop(out: Outgoing) {
+        try {
+            out.open().use { source ->
+                val buffer = ByteArray(CHUNK_BYTES)
+                val payload = SyncCodec.PayloadWriter()
+                val crc = CRC32()
+
+                while (true) {
+                    val index: Int
+                    val transferId: Long
+                    val link: SyncConnection
+                    synchronized(lock) {
+                        while (!out.cancelled && !out.finished && (connection == null || out.window == 0 ||
+                                    out.position >= out.needed.size || out.framesSent - out.framesAcked >= out.window)
+                        ) {
+                            lock.wait()
+                        }
+                        if (out.cancelled || out.finished) return
+                        index = out.needed[out.position++]
+                        out.framesSent++
+                        transferId = out.transferId
+                        link = connection!!
+                    }
+
+                    val offset = index.toLong() * CHUNK_BYTES
+                    val length = minOf(CHUNK_BYTES.toLong(), out.entry.size - offset).toInt()
+                    readFully(source, buffer, length, offset)
+                    crc.reset()
+                    crc.update(buffer, 0, length)
+
+                    payload.reset()
+                    payload.writeVarint(transferId)
+                    payload.writeVarint(index.toLong())
+                    payload.writeVarint(crc.value)
+                    payload.writeBytes(buffer, 0, length)
+                    // False means the link just went down, and close() ends this loop
+                    link.sendBlocking(encoder.encode(SyncCodec.TYPE_DOC_CHUNK, payload))
+                }
+            }
+        } catch (e: InterruptedException) {
+            // Shutting down
+        } catch (e: IOException) {
+            listener.onFailed(true, out.entry.name, e.message ?: "read error")
+        }
+    }
+
+    // Replaces whatever was still queued; chunks already sent stay counted for the window
+    private fun onNeed(payload: SyncCodec.PayloadReader) {
+        val transferId = payload.readVarint()
+        val window = payload.readInt()
+        val rangeCount = payload.readInt()
+
+        synchronized(lock) {
+            val out = outgoing ?: return
+            if (out.transferId != transferId || out.finished) return
+
+            var total = 0
+            val ranges = IntArray(rangeCount * 2)
+            for (i in 0 until rangeCount) {
+                ranges[i * 2] = payload.readInt()
+                ranges[i * 2 + 1] = payload.readInt()
+                total += ranges[i * 2 + 1]
+            }
+            val needed = IntArray(total)
+            var position = 0
+            for (i in 0 until rangeCount) {
+                for (chunk in ranges[i * 2] until ranges[i * 2] + ranges[i * 2 + 1]) {
+                    if (chunk < out.chunkCount) needed[position++] = chunk
+                }
+            }
+
+            if (out.window == 0) out.startNanos = System.nanoTime()
+            out.needed = needed.copyOf(position)
+            out.position = 0
+            out.window = maxOf(1, window)
+            lock.notifyAll()
+            println("DEBUG: Other device needs ${out.needed.size} of ${out.chunkCount} chunks of ${out.entry.name}")
+        }
+    }
+
+    private fun onAck(transferId: Long, framesReceived: Long) {
+        synchronized(lock) {
+            val out = outgoing ?: return
+            if (out.transferId != transferId) return
+            out.framesAcked = maxOf(out.framesAcked, framesReceived)
+            lock.notifyAll()
+
+            val now = System.nanoTime()
+            if (now - out.lastProgressNanos >= PROGRESS_INTERVAL_NANOS) {
+                out.lastProgressNanos = now
+                val skipped = out.chunkCount - out.needed.size
+                val done = minOf(out.entry.size, (skipped + out.framesAcked) * CHUNK_BYTES)
+                listener.onProgress(true, out.entry.name, done, out.entry.size, rate(out.framesAcked * CHUNK_BYTES, out.startNanos))
+            }
+        }
+    }
+
+    private fun onComplete(transferId: Long, ok: Boolean) {
+        synchronized(lock) {
+            val out = outgoing ?: return
+            if (out.transferId != transferId) return
+            out.finished = true
+            lock.notifyAll()
+
+            if (ok) {
+                listener.onProgress(true, out.entry.name, out.entry.size, out.entry.size,
+                    rate(out.framesAcked * CHUNK_BYTES, out.startNanos))
+            } else {
+                listener.onFailed(true, out.entry.name, "The other device couldn't verify the file")
+            }
+        }
+    }
+
+    // Hashing the whole file takes a moment, so it doesn't happen on the reader thread
+    private fun onHashesRequest(transferId: Long) {
+        val out = synchronized(lock) { outgoing?.takeIf { it.transferId == transferId } } ?: return
+        SyncIo.run("DocumentHashes") {
+            try {
+                val hashes = out.open().use { source ->
+                    blockHashes(Channels.newInputStream(source).buffered(), source.size(), CHUNK_BYTES)
+                }
+                val payload = SyncCodec.PayloadWriter()
+                payload.writeVarint(transferId)
+                payload.writeVarint(hashes.size.toLong())
+                val bytes = ByteArray(8)
+                for (hash in hashes) {
+                    for (i in 0 until 8) bytes[i] = (hash ushr (56 - i * 8)).toByte()
+                    payload.writeBytes(bytes, 0, 8)
+                }
+                val link = synchronized(lock) { connection } ?: return@run
+                link.send(encoder.encode(SyncCodec.TYPE_DOC_BLOCK_HASHES, payload))
+            } catch (e: IOException) {
+                listener.onFailed(true, out.entry.name, e.message ?: "read error")
+            }
+        }
+    }
+
+    // Receiving side
+
+    private fun onOffer(payload: SyncCodec.PayloadReader) {
+        val transferId = payload.readVarint()
+        val size = payload.readVarint()
+        val chunkBytes = payload.readInt()
+        val hash = payload.readString()
+        val name = payload.readString()
+
+        if (chunkBytes <= 0 || chunkBytes > SyncCodec.MAX_PAYLOAD_BYTES) {
+            listener.onFailed(false, name, "Bad chunk size $chunkBytes")
+            return
+        }
+
+        // The fast path for a known score: nothing to transfer
+        store.find(hash)?.let { entry ->
+            synchronized(receiveLock) { closeIncoming() }
+            println("DEBUG: Already have $name, skipping transfer")
+            sendControl(SyncCodec.TYPE_DOC_COMPLETE, transferId, 1)
+            listener.onReceived(entry)
+            return
+        }
+
+        synchronized(receiveLock) {
+            closeIncoming()
+            val receiving = openIncoming(transferId, hash, size, chunkBytes, name)
+            incoming = receiving
+
+            val base = if (receiving.have.isEmpty) store.findByName(name, hash) else null
+            when {
+                receiving.isComplete() -> finishIncoming(receiving)
+                base != null -> {
+                    println("DEBUG: Have an older $name, asking for block hashes")
+                    sendControl(SyncCodec.TYPE_DOC_HASHES_REQUEST, transferId)
+                }
+                else -> {
+                    if (!receiving.have.isEmpty) println("DEBUG: Resuming $name with ${receiving.have.cardinality()} of ${receiving.chunkCount} chunks")
+                    sendNeed(receiving)
+                }
+            }
+        }
+    }
+
+    private fun openIncoming(transferId: Long, hash: String, size: Long, chunkBytes: Int, name: String): Incoming {
+        val part = store.partialFileFor(hash)
+        val blockMap = store.blockMapFileFor(hash)
+
+        // Block maps are only valid for the chunk size they were written with
+        var have = BitSet()
+        if (part.exists() && blockMap.exists()) {
+            try {
+                blockMap.inputStream().use { input ->
+                    val savedChunkBytes = readInt(input)
+                    if (savedChunkBytes == chunkBytes) have = BitSet.valueOf(input.readBytes())
+                }
+            } catch (e: IOException) {
+                println("DEBUG: Ignoring unreadable block map for $name: ${e.message}")
+            }
+        }
+
+        val file = RandomAccessFile(part, "rw")
+        file.setLength(size)
+        return Incoming(transferId, hash, size, chunkBytes, name, file, have)
+    }
+
+    // The receiver holds an older revision; copy every block that didn't change
+    private fun onBlockHashes(payload: SyncCodec.PayloadReader) {
+        val transferId = payload.readVarint()
+        val count = payload.readInt()
+        if (count < 0 || count * 8L > payload.remaining()) return
+        val hashes = LongArray(count)
+        val bytes = ByteArray(8)
+        for (i in 0 until count) {
+            payload.readBytes(bytes, 0, 8)
+            var value = 0L
+            for (b in bytes) value = (value shl 8) or (b.toLong() and 0xFF)
+            hashes[i] = value
+        }
+
+        SyncIo.run("DocumentDelta") {
+            synchronized(receiveLock) {
+                val receiving = incoming?.takeIf { it.transferId == transferId } ?: return@run
+                try {
+                    val base = store.findByName(receiving.name, receiving.hash)
+                    if (base != null) {
+                        val copied = copyUnchangedBlocks(receiving, store.fileFor(base), hashes)
+                        println("DEBUG: Reused $copied of ${receiving.chunkCount} blocks from the stored ${receiving.name}")
+                    }
+                } catch (e: IOException) {
+                    println("DEBUG: Couldn't reuse the older ${receiving.name}: ${e.message}")
+                }
+                if (receiving.isComplete()) finishIncoming(receiving) else sendNeed(receiving)
+            }
+        }
+    }
+
+    // Must hold receiveLock. Blocks match by content, so whole blocks that moved are found too
+    private fun copyUnchangedBlocks(receiving: Incoming, baseFile: File, hashes: LongArray): Int {
+        val baseHashes = blockHashes(baseFile, receiving.chunkBytes)
+        val baseIndex = HashMap<Long, Int>()
+        baseHashes.forEachIndexed { index, hash -> baseIndex.putIfAbsent(hash, index) }
+
+        var copied = 0
+        val buffer = ByteArray(receiving.chunkBytes)
+        RandomAccessFile(baseFile, "r").use { base ->
+            for (index in 0 until minOf(hashes.size, receiving.chunkCount)) {
+                if (receiving.have[index]) continue
+                val from = baseIndex[hashes[index]] ?: continue
+
+                val length = blockLength(receiving.size, receiving.chunkBytes, index)
+                if (blockLength(base.length(), receiving.chunkBytes, from) != length) continue
+                base.seek(from.toLong() * receiving.chunkBytes)
+                base.readFully(buffer, 0, length)
+                receiving.file.seek(index.toLong() * receiving.chunkBytes)
+                receiving.file.write(buffer, 0, length)
+                receiving.have.set(index)
+                copied++
+            }
+        }
+        saveBlockMap(receiving)
+        return copied
+    }
+
+    private fun onChunk(payload: SyncCodec.PayloadReader) {
+        synchronized(receiveLock) {
+            val receiving = incoming ?: return
+            val transferId = payload.readVarint()
+            // Chunks still in flight from an older offer
+            if (transferId != receiving.transferId) return
+            val index = payload.readInt()
+            val expectedCrc = payload.readVarint()
+
+            // Every frame counts for the sender's window, even one we end up not using
+            receiving.framesReceived++
+            sendControl(SyncCodec.TYPE_DOC_ACK, transferId, receiving.framesReceived, coalesceKey = SyncCodec.TYPE_DOC_ACK)
+            if (index < 0 || index >= receiving.chunkCount || receiving.have[index]) return
+
+            val length = payload.remaining()
+            if (receiveBuffer.size < length) receiveBuffer = ByteArray(length)
+            payload.readBytes(receiveBuffer, 0, length)
+            receiveCrc.reset()
+            receiveCrc.update(receiveBuffer, 0, length)
+
+            if (length != blockLength(receiving.size, receiving.chunkBytes, index) || receiveCrc.value != expectedCrc) {
+                println("DEBUG: Chunk $index of ${receiving.name} is corrupt, asking for it again")
+                sendNeed(receiving)
+                return
+            }
+
+            receiving.file.seek(index.toLong() * receiving.chunkBytes)
+            receiving.file.write(receiveBuffer, 0, length)
+            receiving.have.set(index)
+            if (++receiving.chunksSinceSave >= BLOCK_MAP_SAVE_INTERVAL) saveBlockMap(receiving)
+
+            val now = System.nanoTime()
+            if (now - receiving.lastProgressNanos >= PROGRESS_INTERVAL_NANOS) {
+                receiving.lastProgressNanos = now
+                val chunks = receiving.have.cardinality()
+                val done = minOf(receiving.size, chunks.toLong() * receiving.chunkBytes)
+                val rate = rate((chunks - receiving.startChunks).toLong() * receiving.chunkBytes, receiving.startNanos)
+                listener.onProgress(false, receiving.name, done, receiving.size, rate)
+            }
+
+            if (receiving.isComplete()) finishIncoming(receiving)
+        }
+    }
+
+    // Must hold receiveLock
+    private fun sendNeed(receiving: Incoming) {
+        receivePayload.reset()
+        receivePayload.writeVarint(receiving.transferId)
+        receivePayload.writeVarint(WINDOW_CHUNKS.toLong())
+
+        // Missing chunks as (start, length) runs
+        val ranges = ArrayList<Int>()
+        var start = receiving.have.nextClearBit(0)
+        while (start < receiving.chunkCount) {
+            val end = minOf(receiving.have.nextSetBit(start).let { if (it < 0) receiving.chunkCount else it }, receiving.chunkCount)
+            ranges.add(start)
+            ranges.add(end - start)
+            start = receiving.have.nextClearBit(end)
+        }
+        receivePayload.writeVarint((ranges.size / 2).toLong())
+        for (value in ranges) receivePayload.writeVarint(value.toLong())
+
+        val link = synchronized(lock) { connection } ?: return
+        link.send(encoder.encode(SyncCodec.TYPE_DOC_NEED, receivePayload))
+    }
+
+    // Must hold receiveLock. Hashing a large score takes a moment, so it happens on its own thread
+    private fun finishIncoming(receiving: Incoming) {
+        receiving.file.close()
+        incoming = null
+        listener.onProgress(false, receiving.name, receiving.size, receiving.size,
+            rate((receiving.chunkCount - receiving.startChunks).toLong() * receiving.chunkBytes, receiving.startNanos))
+
+        SyncIo.run("DocumentVerify") {
+            try {
+                val entry = store.adoptPartial(receiving.hash, receiving.name)
+                sendControl(SyncCodec.TYPE_DOC_COMPLETE, receiving.transferId, 1)
+                listener.onReceived(entry)
+            } catch (e: IOException) {
+                sendControl(SyncCodec.TYPE_DOC_COMPLETE, receiving.transferId, 0)
+                listener.onFailed(false, receiving.name, e.message ?: "verify failed")
+            }
+        }
+    }
+
+    // Must hold receiveLock
+    private fun closeIncoming() {
+        val receiving = incoming ?: return
+        incoming = null
+        try {
+            saveBlockMap(receiving)
+            receiving.file.close()
+        } catch (e: IOException) {
+            println("DEBUG: Error closing partial ${receiving.name}: ${e.message}")
+        }
+    }
+
+    // Must hold receiveLock
+    private fun saveBlockMap(receiving: Incoming) {
+        receiving.chunksSinceSave = 0
+        store.blockMapFileFor(receiving.hash).outputStream().use { output ->
+            val chunkBytes = receiving.chunkBytes
+            output.write(byteArrayOf((chunkBytes ushr 24).toByte(), (chunkBytes ushr 16).toByte(), (chunkBytes ushr 8).toByte(), chunkBytes.toByte()))
+            output.write(receiving.have.toByteArray())
+        }
+    }
+
+    private fun sendControl(type: Int, vararg values: Long, coalesceKey: Int = SyncWriter.NO_COALESCE) {
+        val link = synchronized(lock) { connection } ?: return
+        link.send(encoder.encodeVarints(type, *values), coalesceKey)
+    }
+
+    private fun rate(bytes: Long, sinceNanos: Long): Long {
+        val elapsed = System.nanoTime() - sinceNanos
+        return if (sinceNanos == 0L || elapsed <= 0) 0 else bytes * 1_000_000_000L / elapsed
+    }
+
+    companion object {
+        const val CHUNK_BYTES = 16 * 1024
+        // 128 KB in flight; well over what one RFCOMM round trip needs
+        const val WINDOW_CHUNKS = 8
+        private const val PROGRESS_INTERVAL_NANOS = 250_000_000L
+        private const val BLOCK_MAP_SAVE_INTERVAL = 64
+
+        fun chunkCount(size: Long, chunkBytes: Int): Int = ((size + chunkBytes - 1) / chunkBytes).toInt()
+
+        fun blockLength(size: Long, chunkBytes: Int, index: Int): Int =
+            maxOf(0L, minOf(chunkBytes.toLong(), size - index.toLong() * chunkBytes)).toInt()
+
+        /** First 8 bytes of the SHA-256 of every [blockBytes] block of [file]. */
+        fun blockHashes(file: File, blockBytes: Int): LongArray =
+            file.inputStream().buffered().use { blockHashes(it, file.length(), blockBytes) }
+
+        /** The same for the [size] bytes of [input]. */
+        fun blockHashes(input: InputStream, size: Long, blockBytes: Int): LongArray {
+            val digest = MessageDigest.getInstance("SHA-256")
+            val buffer = ByteArray(blockBytes)
+            val hashes = LongArray(chunkCount(size, blockBytes))
+            for (index in hashes.indices) {
+                var filled = 0
+                while (filled < blockBytes) {
+                    val read = input.read(buffer, filled, blockBytes - filled)
+                    if (read < 0) break
+                    filled += read
+                }
+                digest.update(buffer, 0, filled)
+                val hash = digest.digest()
+                var value = 0L
+                for (i in 0 until 8) value = (value shl 8) or (hash[i].toLong() and 0xFF)
+                hashes[index] = value
+            }
+            return hashes
+        }
+
+        // Positional reads, so the source's own position never matters
+        private fun readFully(source: FileChannel, buffer: ByteArray, length: Int, position: Long) {
+            val target = ByteBuffer.wrap(buffer, 0, length)
+            while (target.hasRemaining()) {
+                if (source.read(target, position + target.position()) < 0) throw EOFException("Document got shorter while sending")
+            }
+        }
+
+        private fun readInt(input: java.io.InputStream): Int {
+            var value = 0
+            repeat(4) {
+                val b = input.read()
+                if (b < 0) throw IOException("Truncated block map")
+                value = (value shl 8) or b
+            }
+            return value
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Wraps a {@link SyncTransport} and makes its outgoing direction behave like a bad
+ * radio link: per-write latency drawn from a distribution, a bandwidth cap, random
+ * stalls and a forced disconnect. Wrap both ends to impair both directions.
+ *
+ * The result is still a reliable, ordered byte stream like RFCOMM: a slow write
+ * holds up everything behind it, and loss only shows up as extra delay (modelled
+ * by the stalls), never as missing bytes.
+ */
+public class ImpairedSyncTransport implements SyncTransport {
+
+    /** Extra one-way delay for one write. */
+    public interface LatencyModel {
+        long sampleNanos(Random random);
+    }
+
+    public static LatencyModel constant(long millis) {
+        return random -> millis * 1_000_000L;
+    }
+
+    public static LatencyModel uniform(long minMillis, long maxMillis) {
+        return random -> (minMillis + (long) (random.nextDouble() * (maxMillis - minMillis))) * 1_000_000L;
+    }
+
+    /** {@code baseMillis} plus an exponential tail, the usual shape of a congested link. */
+    public static LatencyModel exponential(long baseMillis, long meanExtraMillis) {
+        return random -> (long) ((baseMillis - Math.log(1 - random.nextDouble()) * meanExtraMillis) * 1_000_000L);
+    }
+
+    /** Mostly {@code base}, but now and then a much longer spike. */
+    public static LatencyModel spiky(LatencyModel base, double spikeProbability, long spikeMillis) {
+        return random -> base.sampleNanos(random)
+                + (random.nextDouble() < spikeProbability ? spikeMillis * 1_000_000L : 0);
+    }
+
+    /** What to do to the link. Setters return this so presets read as one expression. */
+    public static class Impairment {
+        LatencyModel latency = constant(0);
+        long bytesPerSecond = 0; // 0 for no cap
+        double stallProbability = 0;
+        long stallMillis = 0;
+        long disconnectAfterMillis = -1;
+
+        public Impairment latency(LatencyModel latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Impairment bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /** Each write has {@code probability} of freezing the link for {@code millis}. */
+        public Impairment stalls(double probability, long millis) {
+            this.stallProbability = probability;
+            this.stallMillis = millis;
+            return this;
+        }
+
+        /** Drops the connection this long after the transport is wrapped. */
+        public Impairment disconnectAfter(long millis) {
+            this.disconnectAfterMillis = millis;
+            return this;
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final long deliverAtNanos;
+
+        Chunk(byte[] data, long deliverAtNanos) {
+            this.data = data;
+            this.deliverAtNanos = deliverAtNanos;
+        }
+    }
+
+    private final SyncTransport inner;
+    private final Impairment impairment;
+    private final Random random;
+    private final OutputStream innerOutput;
+    private final long disconnectAtNanos;
+    private final ArrayDeque<Chunk> inFlight = new ArrayDeque<>();
+    private final Thread link;
+
+    // Guarded by this
+    private long linkFreeAtNanos = 0;
+    private long lastDeliveryNanos = 0;
+    private boolean closed = false;
+    private long stalls = 0;
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) throws IOException {
+            enqueue(source, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ImpairedSyncTransport.this.close();
+        }
+    };
+
+    public ImpairedSyncTransport(SyncTransport inner, Impairment impairment, long seed) throws IOException {
+        this.inner = inner;
+        this.impairment = impairment;
+        this.random = new Random(seed);
+        this.innerOutput = inner.getOutputStream();
+        this.disconnectAtNanos = impairment.disconnectAfterMillis < 0
+                ? Long.MAX_VALUE
+                : System.nanoTime() + impairment.disconnectAfterMillis * 1_000_000L;
+        this.link = new Thread(this::deliverLoop, "ImpairedLink " + inner.describe());
+        this.link.start();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return inner.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return !closed && inner.isConnected();
+    }
+
+    @Override
+    public String describe() {
+        return "impaired " + inner.describe();
+    }
+
+    public synchronized long stallCount() {
+        return stalls;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            inFlight.clear();
+            notifyAll();
+        }
+        inner.close();
+    }
+
+    private synchronized void enqueue(byte[] source, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Link closed");
+        }
+        long now = System.nanoTime();
+
+        if (impairment.stallProbability > 0 && random.nextDouble() < impairment.stallProbability) {
+            linkFreeAtNanos = Math.max(linkFreeAtNanos, now) + impairment.stallMillis * 1_000_000L;
+            stalls++;
+        }
+
+        // Time on the air, then propagation; the stream never reorders, so nothing
+        // arrives before what was written ahead of it
+        long sentAt = Math.max(linkFreeAtNanos, now);
+        if (impairment.bytesPerSecond > 0) {
+            sentAt += length * 1_000_000_000L / impairment.bytesPerSecond;
+        }
+        linkFreeAtNanos = sentAt;
+        long deliverAt = Math.max(lastDeliveryNanos, sentAt + impairment.latency.sampleNanos(random));
+        lastDeliveryNanos = deliverAt;
+
+        byte[] copy = new byte[length];
+        System.arraycopy(source, offset, copy, 0, length);
+        inFlight.addLast(new Chunk(copy, deliverAt));
+        notifyAll();
+    }
+
+    private void deliverLoop() {
+        try {
+            while (true) {
+                Chunk chunk;
+                synchronized (this) {
+                    while (true) {
+                        if (closed) {
+                            return;
+                        }
+                        long now = System.nanoTime();
+                        if (now >= disconnectAtNanos) {
+                            break;
+                        }
+                        Chunk head = inFlight.peekFirst();
+                        long wakeAt = Math.min(disconnectAtNanos, head == null ? Long.MAX_VALUE : head.deliverAtNanos);
+                        if (head != null && now >= head.deliverAtNanos) {
+                            break;
+                        }
+                        long waitNanos = wakeAt - now;
+                        if (waitNanos > Long.MAX_VALUE / 2) {
+                            wait();
+                        } else {
+                            wait(Math.max(1, waitNanos / 1_000_000L), (int) (waitNanos % 1_000_000L));
+                        }
+                    }
+                    if (System.nanoTime() >= disconnectAtNanos) {
+                        System.out.println("DEBUG: Impaired link " + inner.describe() + " disconnecting");
+                        closed = true;
+                        inFlight.clear();
+                        chunk = null;
+                    } else {
+                        chunk = inFlight.pollFirst();
+                    }
+                }
+
+                if (chunk == null) {
+                    inner.close();
+                    return;
+                }
+                innerOutput.write(chunk.data);
+                innerOutput.flush();
+            }
+        } catch (InterruptedException | IOException e) {
+            // Closed underneath us; the reader on either side reports it
+        }
+    }
+}
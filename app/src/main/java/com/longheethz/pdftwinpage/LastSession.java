@@ -0,0 +1,73 @@
+package com.longheethz.pdftwinpage;
+
+import android.content.SharedPreferences;
+
+/**
+ * The last device this one had a session with and how they connected, kept in the
+ * app's preferences so the next launch can go straight back to it.
+ */
+public class LastSession {
+
+    public static final String ROLE_SERVER = "server";
+    public static final String ROLE_CLIENT = "client";
+    public static final String ROLE_QUICK = "quick";
+
+    private static final String ADDRESS_KEY = "last_peer_address";
+    private static final String NAME_KEY = "last_peer_name";
+    private static final String ROLE_KEY = "last_role";
+    private static final String CONNECTED_AT_KEY = "last_connected_at";
+    private static final String SETUP_MS_KEY = "last_setup_ms";
+
+    public final String address;
+    public final String name;
+    /** How we linked: started a server, dialed one, or Quick Connect. */
+    public final String role;
+    /** Wall clock time of the last successful link. */
+    public final long connectedAt;
+    /** How long that link took from the tap (or launch) to ready, -1 if unknown. */
+    public final long setupMillis;
+
+    private LastSession(String address, String name, String role, long connectedAt, long setupMillis) {
+        this.address = address;
+        this.name = name;
+        this.role = role;
+        this.connectedAt = connectedAt;
+        this.setupMillis = setupMillis;
+    }
+
+    /** The remembered session, or null if there is none. */
+    public static LastSession load(SharedPreferences preferences) {
+        String address = preferences.getString(ADDRESS_KEY, null);
+        String role = preferences.getString(ROLE_KEY, null);
+        if (address == null || role == null) {
+            return null;
+        }
+        return new LastSession(address, preferences.getString(NAME_KEY, null), role,
+                preferences.getLong(CONNECTED_AT_KEY, 0), preferences.getLong(SETUP_MS_KEY, -1));
+    }
+
+    public static void save(SharedPreferences preferences, String address, String name, String role, long setupMillis) {
+        preferences.edit()
+                .putString(ADDRESS_KEY, address)
+                .putString(NAME_KEY, name)
+                .putString(ROLE_KEY, role)
+                .putLong(CONNECTED_AT_KEY, System.currentTimeMillis())
+                .putLong(SETUP_MS_KEY, setupMillis)
+                .apply();
+    }
+
+    public static void forget(SharedPreferences preferences) {
+        preferences.edit()
+                .remove(ADDRESS_KEY)
+                .remove(NAME_KEY)
+                .remove(ROLE_KEY)
+                .remove(CONNECTED_AT_KEY)
+                .remove(SETUP_MS_KEY)
+                .apply();
+    }
+
+    @Override
+    public String toString() {
+        return role + " with " + (name != null ? name : address) + " (setup " + setupMillis + "ms)";
+    }
+}
@@ -0,0 +1,231 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Symmetric session setup: both devices listen and dial each other at the same time,
+ * so nobody has to decide who is the server.
+ *
+ * Every link that comes up starts with HELLO(nonce) in both directions. The device
+ * with the higher nonce becomes the server and picks the link: it sends HELLO_KEEP on
+ * the first link whose handshake completes and closes every other one. The client
+ * only takes a link once HELLO_KEEP arrives on it, so when both dials connect, both
+ * devices end up on the same link and the other one dies.
+ *
+ * Handshake frames are read a byte at a time, so nothing after them is taken from
+ * the stream before the link is handed to a {@link SyncConnection}.
+ */
+public class LinkRace {
+
+    /** The two ways to reach the other device. */
+    public interface Endpoint {
+        /** Blocks until the other device dials us. */
+        SyncTransport accept() throws IOException;
+
+        /** Blocks until we are connected to the other device. */
+        SyncTransport dial() throws IOException;
+
+        /** Makes a pending accept or dial fail. Links already returned stay open. */
+        void cancel();
+    }
+
+    public interface Listener {
+        /** Exactly one link survived the race. Called once, on a race thread. */
+        void onLinked(SyncTransport transport, boolean isServer, long setupNanos);
+    }
+
+    // Short, the other device is probably just not listening yet
+    private static final long DIAL_RETRY_MS = 500;
+
+    private final Endpoint endpoint;
+    private final Listener listener;
+    // Varints carry 63 bits
+    private final long nonce = new SecureRandom().nextLong() >>> 1;
+    private final SyncCodec.Encoder encoder = new SyncCodec.Encoder();
+
+    // Guarded by this
+    private boolean done = false;
+    private final List<SyncTransport> handshaking = new ArrayList<>();
+    private long startNanos;
+
+    public LinkRace(Endpoint endpoint, Listener listener) {
+        this.endpoint = endpoint;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+        SyncIo.run("LinkRaceAccept", this::acceptLoop);
+        SyncIo.run("LinkRaceDial", this::dialLoop);
+    }
+
+    /** Gives up; no link is reported after this returns. */
+    public void cancel() {
+        List<SyncTransport> closing;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            closing = new ArrayList<>(handshaking);
+            handshaking.clear();
+        }
+        endpoint.cancel();
+        for (SyncTransport transport : closing) {
+            closeQuietly(transport);
+        }
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    private void acceptLoop() {
+        while (!isDone()) {
+            try {
+                handshake(endpoint.accept(), false);
+            } catch (IOException e) {
+                if (!isDone()) {
+                    // Without a listener we can still win by dialing
+                    System.out.println("DEBUG: Link race stops listening: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void dialLoop() {
+        int attempts = 0;
+        while (!isDone()) {
+            attempts++;
+            try {
+                handshake(endpoint.dial(), true);
+            } catch (IOException e) {
+                if (isDone()) {
+                    return;
+                }
+                System.out.println("DEBUG: Link race dial " + attempts + " failed: " + e.getMessage());
+                try {
+                    Thread.sleep(DIAL_RETRY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handshake(SyncTransport transport, boolean dialed) {
+        synchronized (this) {
+            if (done) {
+                closeQuietly(transport);
+                return;
+            }
+            handshaking.add(transport);
+        }
+
+        try {
+            OutputStream output = transport.getOutputStream();
+            InputStream input = transport.getInputStream();
+            output.write(encoder.encodeVarints(SyncCodec.TYPE_HELLO, nonce));
+            output.flush();
+
+            long peerNonce = readFrame(input, SyncCodec.TYPE_HELLO).value;
+            if (peerNonce == nonce) {
+                throw new ProtocolException("Both devices drew the same nonce");
+            }
+            boolean isServer = nonce > peerNonce;
+
+            if (isServer) {
+                synchronized (this) {
+                    if (done) {
+                        throw new IOException("Another link won");
+                    }
+                    // Still under the lock, so no second link can be picked meanwhile
+                    output.write(encoder.encodeVarints(SyncCodec.TYPE_HELLO_KEEP));
+                    output.flush();
+                    done = true;
+                    handshaking.remove(transport);
+                }
+            } else {
+                // The server decides; a link it doesn't pick gets closed under us
+                readFrame(input, SyncCodec.TYPE_HELLO_KEEP);
+                synchronized (this) {
+                    if (done) {
+                        throw new IOException("Race already over");
+                    }
+                    done = true;
+                    handshaking.remove(transport);
+                }
+            }
+            finish(transport, isServer, dialed);
+        } catch (IOException e) {
+            System.out.println("DEBUG: Link race handshake over " + transport.describe() + " failed: " + e.getMessage());
+            synchronized (this) {
+                handshaking.remove(transport);
+            }
+            closeQuietly(transport);
+        }
+    }
+
+    private void finish(SyncTransport transport, boolean isServer, boolean dialed) {
+        List<SyncTransport> losers;
+        long setupNanos;
+        synchronized (this) {
+            losers = new ArrayList<>(handshaking);
+            handshaking.clear();
+            setupNanos = System.nanoTime() - startNanos;
+        }
+        endpoint.cancel();
+        for (SyncTransport loser : losers) {
+            closeQuietly(loser);
+        }
+
+        System.out.println("DEBUG: Link race won by " + (dialed ? "dialing" : "listening") + " as "
+                + (isServer ? "server" : "client") + " in " + setupNanos / 1_000_000 + "ms");
+        listener.onLinked(transport, isServer, setupNanos);
+    }
+
+    private static final class Frame implements SyncCodec.FrameListener {
+        int type = -1;
+        long value = 0;
+
+        @Override
+        public void onFrame(int type, long sequence, SyncCodec.PayloadReader payload) throws IOException {
+            this.type = type;
+            value = payload.remaining() > 0 ? payload.readVarint() : 0;
+        }
+    }
+
+    private static Frame readFrame(InputStream input, int expectedType) throws IOException {
+        SyncCodec.Decoder decoder = new SyncCodec.Decoder(64);
+        Frame frame = new Frame();
+        byte[] one = new byte[1];
+        while (frame.type < 0) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Link closed during handshake");
+            }
+            one[0] = (byte) b;
+            decoder.feed(one, 0, 1, frame);
+        }
+        if (frame.type != expectedType) {
+            throw new ProtocolException("Expected frame type " + expectedType + ", got " + frame.type);
+        }
+        return frame;
+    }
+
+    private static void closeQuietly(SyncTransport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            System.out.println("DEBUG: Error closing " + transport.describe() + ": " + e.getMessage());
+        }
+    }
+}
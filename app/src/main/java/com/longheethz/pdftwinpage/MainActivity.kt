@@ -1,50 +1,120 @@
 package com.longheethz.pdftwinpage
 
-import android.bluetooth.BluetoothSocket
 import android.content.Intent
 import android.content.SharedPreferences
 import android.graphics.Bitmap
-import android.graphics.pdf.PdfRenderer
 import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import android.os.ParcelFileDescriptor
+import android.os.SystemClock
+import android.provider.OpenableColumns
+import android.system.Os
+import android.system.OsConstants
 import android.view.Menu
 import android.view.MenuItem
+import android.view.View
 import android.widget.Button
 import android.widget.ImageView
 import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
 import java.io.IOException
-import java.io.InputStream
-import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.concurrent.thread
 import androidx.activity.result.contract.ActivityResultContracts
-import java.io.FileOutputStream
 
 class MainActivity : AppCompatActivity() {
 
+    companion object {
+        // Sync messages are tiny and page changes coalesce, so this only fills on a dead link
+        private const val WRITE_QUEUE_CAPACITY = 64
+
+        // A quick burst of time requests after connecting, then a slow refresh against drift
+        private const val CLOCK_SYNC_BURST = 8
+        private const val CLOCK_SYNC_BURST_INTERVAL_MS = 200L
+        private const val CLOCK_SYNC_INTERVAL_MS = 5000L
+
+        // How far ahead a simultaneous flip is scheduled
+        private const val MIN_FLIP_LEAD_NANOS = 60_000_000L
+        private const val MAX_FLIP_LEAD_NANOS = 500_000_000L
+    }
+
     private lateinit var pdfPageView: ImageView
     private lateinit var pageInfo: TextView
     private lateinit var prevButton: Button
     private lateinit var nextButton: Button
     private lateinit var connectionStatus: TextView
+    private lateinit var transferStatus: TextView
 
-    private var pdfRenderer: PdfRenderer? = null
-    private var currentPage: PdfRenderer.Page? = null
     private var currentPageIndex = 0
     private var totalPages = 0
 
-    // Bluetooth communication
-    private var bluetoothSocket: BluetoothSocket? = null
-    private var connectedThread: ConnectedThread? = null
-    private var isServer = false
-    private var isSyncing = false // Flag to prevent infinite loops
+    // Bitmaps leaving the cache go back to the pool unless the ImageView still shows them
+    // or a scheduled flip is about to
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val bitmapPool = BitmapPool(PageBitmapCache.defaultBudgetBytes() / 4)
+    private var displayedBitmap: Bitmap? = null
+
+    // Rendered page cache, filled ahead of the reader by prefetchAround()
+    private val pageCache = PageBitmapCache(PageBitmapCache.defaultBudgetBytes()) { bitmap ->
+        // Posted so it runs after any pending display of the same bitmap; the render worker
+        // posts displays under the cache lock, so they are always queued first
+        mainHandler.post {
+            if (bitmap !== displayedBitmap && bitmap !== heldBitmap) bitmapPool.release(bitmap)
+        }
+    }
 
-    // Add this property
-    private var isLeftPage = true // Server shows left pages, client shows right pages
+    // All PdfRenderer access happens on the worker's thread
+    private val renderWorker = PageRenderWorker(pageCache, bitmapPool)
+    private val turnStats = PageTurnStats()
+    // Learns direction and pace from every turn, ours or the other device's; half the cache is for pages ahead
+    private val prefetchPlanner = PrefetchPlanner(PageBitmapCache.defaultBudgetBytes() / 2)
+    // Created on first use, which is always on a background thread
+    private val documentStore by lazy { DocumentStore(File(filesDir, "documents"), DocumentStore.DEFAULT_MAX_BYTES) }
+    private var loadStartNanos = 0L // Set when a PDF is picked, cleared once its first page shows
+    // A locally picked PDF, shared once its first page shows
+    private var pendingShare: SharedDocument? = null
+    // The open document, offered to every peer that joins
+    @Volatile private var sharedDocument: SharedDocument? = null
+    private var remoteRender = false
+    private var remoteWait: RemoteWait? = null
+
+    // Sync links; Bluetooth on the phones, any SyncTransport in tests. A client has
+    // one peer (the server), the server one per client
+    private lateinit var hub: SyncHub
+    private val links = ConcurrentHashMap<SyncHub.Peer, PeerLink>()
+    private var isServer = false
+    private var reconnecting = false
+    private val syncEncoder = SyncCodec.Encoder()
+    // Shared reading position; every device signs its turns with its slot
+    private var pageSync = PageSyncState(0)
+    // Last page change the server sent out, to time the clients' acks against
+    @Volatile private var lastBroadcast: PageSyncState.Update? = null
+    @Volatile private var lastBroadcastNanos = 0L
+
+    // Time requests to every peer, for flipping all pages at the same moment
+    private var clockSyncRounds = 0
+    private var syncFlip = false
+    private var scheduledFlip: Runnable? = null
+    private var heldBitmap: Bitmap? = null // Rendered page waiting for its flip time
+    // Last flip shown here and last one reported by the peer, both in local time
+    private var lastFlipAnchor = -1
+    private var lastFlipShownAt = 0L
+    private var flipSkewCount = 0
+    private var flipSkewTotalNanos = 0L
+    private var flipSkewMaxNanos = 0L
+
+    // The server is slot 0 and shows the spread's first page; the client in slot s shows
+    // page s of the spread. A client learns its slot and the spread width from the server
+    private var slot = 0
+    private var spreadWidth = 2
+    private val isLeftPage get() = slot == 0
     private lateinit var sharedPreferences: SharedPreferences
     private var readingMode = SettingsActivity.MODE_ODD_EVEN
 
@@ -67,30 +137,174 @@ class MainActivity : AppCompatActivity() {
 
     private fun loadPdfFromUri(uri: android.net.Uri) {
         Toast.makeText(this, "Loading PDF...", Toast.LENGTH_SHORT).show()
+        loadStartNanos = System.nanoTime()
+        pendingShare = null
 
         thread {
-            try {
-                // Copy the PDF from URI to internal storage
-                val inputStream = contentResolver.openInputStream(uri)
-                val pdfFile = File(filesDir, "selected.pdf")
-                val outputStream = FileOutputStream(pdfFile)
-
-                inputStream?.use { input ->
-                    outputStream.use { output ->
-                        input.copyTo(output)
-                    }
-                }
+            // Render straight from the provider's file when it can give us one,
+            // so time to first page doesn't grow with the size of the PDF
+            val direct = openSeekableUri(uri)
+            if (direct == null) {
+                copyPdfFromUri(uri)
+                return@thread
+            }
 
-                runOnUiThread {
-                    openPdf(pdfFile)
+            runOnUiThread {
+                // Sent from where it is; not copied, and only hashed once a peer wants it
+                pendingShare = SharedDocument({ describeUri(uri, direct.first) }) {
+                    ParcelFileDescriptor.AutoCloseInputStream(direct.first()).channel
                 }
+                openDocument(direct.first, direct.second) {
+                    // The provider's descriptor didn't work for PdfRenderer after all
+                    thread { copyPdfFromUri(uri) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an opener for [uri] and a document id when the provider hands out a real,
+     * seekable file, or null when it only offers a stream (e.g. a pipe from a cloud provider).
+     * The id comes from the same quick key the store uses, so a copy received from the
+     * other device is recognized as the document already open.
+     */
+    private fun openSeekableUri(uri: android.net.Uri): Pair<() -> ParcelFileDescriptor, String>? {
+        return try {
+            val probe = contentResolver.openFileDescriptor(uri, "r") ?: return null
+            val quickKey = probe.use { fileDescriptor ->
+                // Pipes report no size and can't seek; PdfRenderer needs both
+                if (fileDescriptor.statSize < 0) return null
+                Os.lseek(fileDescriptor.fileDescriptor, 0, OsConstants.SEEK_SET)
+                val head = ByteArray(DocumentStore.HEAD_BYTES)
+                val headLength = DocumentStore.readHead(FileInputStream(fileDescriptor.fileDescriptor), head)
+                DocumentStore.quickKey(fileDescriptor.statSize, head, headLength)
+            }
+
+            val opener: () -> ParcelFileDescriptor = {
+                contentResolver.openFileDescriptor(uri, "r")
+                    ?: throw FileNotFoundException("No file descriptor for $uri")
+            }
+            Pair(opener, documentId(quickKey))
+        } catch (e: Exception) {
+            println("DEBUG: Can't open $uri in place, copying instead: ${e.message}")
+            null
+        }
+    }
+
+    // Fallback for providers that only stream: copy into the document store first,
+    // unless the store already has this exact file from an earlier session
+    private fun copyPdfFromUri(uri: android.net.Uri) {
+        try {
+            val entry = importIntoStore(uri)
 
+            runOnUiThread {
+                pendingShare = storedDocument(entry)
+                openStoredPdf(entry)
+            }
+
+        } catch (e: Exception) {
+            runOnUiThread {
+                Toast.makeText(this, "Error loading PDF: ${e.message}", Toast.LENGTH_LONG).show()
+            }
+        }
+    }
+
+    private fun importIntoStore(uri: android.net.Uri): DocumentStore.Entry {
+        val (name, size) = nameAndSize(uri)
+        val inputStream = contentResolver.openInputStream(uri)
+            ?: throw FileNotFoundException("Could not open $uri")
+        return inputStream.use { input ->
+            documentStore.importOrFind(input, size, name)
+        }
+    }
+
+    // Hashes a document opened in place, reading it where it is
+    private fun describeUri(uri: android.net.Uri, opener: () -> ParcelFileDescriptor): DocumentStore.Entry {
+        val name = nameAndSize(uri).first
+        return ParcelFileDescriptor.AutoCloseInputStream(opener()).use { input ->
+            documentStore.describe(input, name)
+        }
+    }
+
+    // Display name and size as the provider reports them; the size is -1 if unknown
+    private fun nameAndSize(uri: android.net.Uri): Pair<String, Long> {
+        var name = "document.pdf"
+        var size = -1L
+        contentResolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE), null, null, null)?.use { cursor ->
+            if (cursor.moveToFirst()) {
+                cursor.getString(0)?.let { name = it }
+                if (!cursor.isNull(1)) size = cursor.getLong(1)
+            }
+        }
+        return Pair(name, size)
+    }
+
+    /**
+     * The open document as peers get it. The entry is only worked out the first time a
+     * peer needs it, and [open] reads the bytes from wherever the document was opened.
+     */
+    private class SharedDocument(private val describe: () -> DocumentStore.Entry, val open: () -> FileChannel) {
+        private var entry: DocumentStore.Entry? = null
+
+        @Synchronized
+        fun entry(): DocumentStore.Entry = entry ?: describe().also { entry = it }
+    }
+
+    private fun storedDocument(entry: DocumentStore.Entry) =
+        SharedDocument({ entry }) { RandomAccessFile(documentStore.fileFor(entry), "r").channel }
+
+    // Shares the document once this device shows its first page, so the upload
+    // never delays that page. With no peers yet, nothing is read until one joins
+    private fun pushToPeer() {
+        val document = pendingShare ?: return
+        pendingShare = null
+        sharedDocument = document
+        links.values.forEach { offerShared(it, document) }
+    }
+
+    // Hashing a document opened in place reads all of it, so it happens off the UI thread
+    private fun offerShared(link: PeerLink, document: SharedDocument) {
+        SyncIo.run("DocumentPush") {
+            try {
+                link.transfer.offer(document.entry(), document.open)
             } catch (e: Exception) {
-                runOnUiThread {
-                    Toast.makeText(this, "Error loading PDF: ${e.message}", Toast.LENGTH_LONG).show()
+                println("DEBUG: Can't send document to the other device: ${e.message}")
+            }
+        }
+    }
+
+    private val transferListener = object : DocumentTransfer.Listener {
+        override fun onProgress(sending: Boolean, name: String, bytesDone: Long, totalBytes: Long, bytesPerSecond: Long) {
+            val percent = if (totalBytes == 0L) 100 else (bytesDone * 100 / totalBytes).toInt()
+            val text = "${if (sending) "Sending" else "Receiving"} $name $percent% (${bytesPerSecond / 1024} KB/s)"
+            println("DEBUG: $text")
+            runOnUiThread {
+                transferStatus.text = text
+                transferStatus.visibility = View.VISIBLE
+                if (bytesDone >= totalBytes) {
+                    mainHandler.postDelayed({ transferStatus.visibility = View.GONE }, 2000)
                 }
             }
         }
+
+        override fun onReceived(entry: DocumentStore.Entry) {
+            if (isOpen(entry)) return
+            sharedDocument = storedDocument(entry)
+            runOnUiThread {
+                // Came from the other device, so it isn't sent back
+                loadStartNanos = System.nanoTime()
+                pendingShare = null
+                openStoredPdf(entry)
+            }
+        }
+
+        override fun onFailed(sending: Boolean, name: String, message: String) {
+            println("DEBUG: Transfer of $name failed: $message")
+            runOnUiThread {
+                transferStatus.visibility = View.GONE
+                Toast.makeText(this@MainActivity, "Transfer of $name failed: $message", Toast.LENGTH_LONG).show()
+            }
+        }
     }
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -108,42 +322,205 @@ class MainActivity : AppCompatActivity() {
         super.onResume()
         // Reload settings when returning from SettingsActivity
         val previousMode = readingMode
+        val previousFormat = renderWorker.renderFormat
         loadSettings()
+
+        // Cached pages are in the old format; re-render the current one in the new one
+        if (previousFormat != renderWorker.renderFormat && totalPages > 0) {
+            pageCache.clear()
+            showPage(currentPageIndex, false)
+        }
         
         // If reading mode changed, sync with the other device
         if (previousMode != readingMode && totalPages > 0) {
-            sendSyncMessage("MODE_CHANGE:$readingMode")
+            sendSyncMessage(
+                syncEncoder.encodeString(SyncCodec.TYPE_MODE_CHANGE, readingMode),
+                "MODE_CHANGE:$readingMode",
+                SyncCodec.TYPE_MODE_CHANGE
+            )
         }
     }
 
     private fun initViews() {
         pdfPageView = findViewById(R.id.pdfPageView)
         pdfPageView.setBackgroundColor(android.graphics.Color.WHITE)
+        transferStatus = findViewById(R.id.transferStatus)
+
+        // Pages are rendered to fit the view, so re-render only when its size really changes
+        pdfPageView.addOnLayoutChangeListener { view, _, _, _, _, _, _, _, _ ->
+            if (!renderWorker.setViewSize(view.width, view.height)) return@addOnLayoutChangeListener
+            links.values.forEach { it.remotePages.sendInfo(view.width, view.height, renderWorker.averageRenderNanos) }
+            if (totalPages > 0) {
+                // Renders at the old size are now just wasted memory
+                pageCache.clear()
+                showPage(currentPageIndex, false)
+            }
+        }
     }
 
     private fun loadSettings() {
         sharedPreferences = getSharedPreferences(SettingsActivity.PREFS_NAME, MODE_PRIVATE)
         readingMode = sharedPreferences.getString(SettingsActivity.READING_MODE_KEY, SettingsActivity.MODE_ODD_EVEN) ?: SettingsActivity.MODE_ODD_EVEN
+        renderWorker.renderFormat = sharedPreferences.getString(SettingsActivity.RENDER_FORMAT_KEY, SettingsActivity.FORMAT_COLOR) ?: SettingsActivity.FORMAT_COLOR
+        syncFlip = sharedPreferences.getBoolean(SettingsActivity.SYNC_FLIP_KEY, false)
+        remoteRender = sharedPreferences.getBoolean(SettingsActivity.REMOTE_RENDER_KEY, false)
     }
 
     private fun setupBluetooth() {
         // Get Bluetooth connection from singleton
         val connectionManager = BluetoothConnectionManager.getInstance()
-        bluetoothSocket = connectionManager.bluetoothSocket
         isServer = connectionManager.isServer()
 
-        // Server shows left pages (odd page numbers: 1,3,5...), Client shows right pages (even page numbers: 2,4,6...)
-        isLeftPage = isServer
+        // Server shows the left pages; a client starts on the right ones until the server says otherwise
+        slot = if (isServer) 0 else 1
+        pageSync = PageSyncState(slot)
+        // The manager owns the links; this screen only shows what runs over them
+        hub = connectionManager.startHub(WRITE_QUEUE_CAPACITY, hubListener)
 
-        if (connectionManager.isConnected()) {
-            // Start communication thread
-            connectedThread = ConnectedThread(bluetoothSocket!!)
-            connectedThread!!.start()
-        } else {
+        if (!connectionManager.isConnected()) {
             finish() // Go back to pairing screen if no connection
+            return
+        }
+        connectionManager.transports.filter { it.isConnected }.forEach { addPeer(it) }
+        // The pairing screen keeps accepting clients while we read, and a client redials a dropped link
+        connectionManager.setOnTransportAddedListener { transport -> runOnUiThread { addPeer(transport) } }
+    }
+
+    // Everything that runs over one peer's link besides page sync
+    private inner class PeerLink(val peer: SyncHub.Peer) : DocumentTransfer.Listener {
+        val transfer = DocumentTransfer({ documentStore }, syncEncoder, this)
+        // Renders pages for the peer, and in thin-client mode has it render ours
+        val remotePages = RemotePageRenderer(renderWorker, bitmapPool, syncEncoder, remotePageListener)
+        // The peer's last FLIP_DONE, in local time, until our own flip of that spread
+        var flipAnchor = -1
+        var flipShownAt = 0L
+
+        override fun onProgress(sending: Boolean, name: String, bytesDone: Long, totalBytes: Long, bytesPerSecond: Long) =
+            transferListener.onProgress(sending, name, bytesDone, totalBytes, bytesPerSecond)
+
+        override fun onReceived(entry: DocumentStore.Entry) {
+            // Offered again after a reconnect; nothing to do
+            if (isOpen(entry)) return
+            // The server passes a client's document on to the other clients
+            if (isServer) links.values.filter { it !== this }.forEach { it.transfer.offer(entry) }
+            transferListener.onReceived(entry)
+        }
+
+        override fun onFailed(sending: Boolean, name: String, message: String) =
+            transferListener.onFailed(sending, name, message)
+
+        fun close() {
+            transfer.close()
+            remotePages.close()
+        }
+    }
+
+    private fun addPeer(transport: SyncTransport) {
+        try {
+            if (isServer && transport is BluetoothSyncTransport) {
+                // A client that dials in again may beat our heartbeat to noticing its old link died
+                hub.peers().filter { it.connection().transport.describe() == transport.describe() }
+                    .forEach { it.connection().fail(IOException("Replaced by a new link")) }
+            }
+            val peer = hub.add(transport)
+            val link = PeerLink(peer)
+            links[peer] = link
+            // Attached first so a frame that arrives right away can be answered
+            link.transfer.attach(peer.connection())
+            link.remotePages.attach(peer.connection())
+            link.remotePages.sendInfo(pdfPageView.width, pdfPageView.height, renderWorker.averageRenderNanos)
+            peer.connection().start()
+            println("DEBUG: Linked ${transport.describe()} as slot ${peer.slot}")
+            // A fresh burst of time requests, so the newcomer's clock is known quickly
+            clockSyncRounds = 0
+            mainHandler.removeCallbacks(clockSyncTick)
+            mainHandler.post(clockSyncTick)
+
+            if (isServer) {
+                assignSlots()
+                // Bring the newcomer up to date
+                peer.send(syncEncoder.encodeString(SyncCodec.TYPE_MODE_CHANGE, readingMode), SyncCodec.TYPE_MODE_CHANGE)
+            } else if (reconnecting) {
+                reconnecting = false
+                Toast.makeText(this, "Reconnected", Toast.LENGTH_SHORT).show()
+            }
+            // Both sides send what they have, so after a reconnect the newest page wins
+            // and a document opened on either side in the meantime gets across
+            if (totalPages > 0) peer.send(pageChangeFrame(pageSync.current(), 0L), SyncCodec.TYPE_PAGE_CHANGE)
+            sharedDocument?.let { offerShared(link, it) }
+        } catch (e: IOException) {
+            println("DEBUG: Error creating streams: ${e.message}")
         }
     }
 
+    // Server only: tells every client its slot and how wide the spread is now
+    private fun assignSlots() {
+        spreadWidth = maxOf(2, hub.spreadWidth())
+        for (peer in hub.peers()) {
+            peer.send(syncEncoder.encodeVarints(SyncCodec.TYPE_SLOT, peer.slot.toLong(), spreadWidth.toLong()), SyncCodec.TYPE_SLOT)
+        }
+        println("DEBUG: ${hub.peers().size} clients, spread of $spreadWidth pages")
+    }
+
+    // Client only: the server moved us to another slot or the spread changed width
+    private fun applySlot(newSlot: Int, newWidth: Int) {
+        if (newSlot == slot && newWidth == spreadWidth) return
+        val moved = newSlot != slot
+        slot = newSlot
+        spreadWidth = newWidth
+        pageSync.setDeviceId(newSlot)
+        println("DEBUG: Now slot $slot of a $spreadWidth page spread")
+
+        val page = pageForAnchor(pageSync.anchor())
+        if (moved && page in 0 until totalPages) showPage(page, false)
+    }
+
+    private val hubListener = object : SyncHub.Listener {
+        override fun onFrame(peer: SyncHub.Peer, type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {
+            handleReceivedMessage(peer, type, sequence, payload)
+        }
+
+        override fun onPeerRemoved(peer: SyncHub.Peer, cause: IOException?) {
+            if (cause == null) {
+                println("DEBUG: Connection to slot ${peer.slot} closed by other device")
+            } else {
+                println("DEBUG: Connection to slot ${peer.slot} lost: ${cause.message}")
+            }
+            links.remove(peer)?.close()
+            if (isServer) {
+                runOnUiThread { assignSlots() }
+            } else {
+                // Keep reading on our own and bring the link back in the background
+                BluetoothConnectionManager.getInstance().reconnect()
+                runOnUiThread {
+                    reconnecting = true
+                    Toast.makeText(this@MainActivity, "Connection lost, reconnecting...", Toast.LENGTH_SHORT).show()
+                }
+            }
+        }
+    }
+
+    private fun writeFrame(frame: ByteArray, coalesceKey: Int = SyncWriter.NO_COALESCE) {
+        val dropped = hub.broadcast(frame, coalesceKey, null)
+        if (dropped > 0) {
+            println("DEBUG: Sync message dropped by $dropped links, write queue full or closed")
+        }
+    }
+
+    private fun pageChangeFrame(update: PageSyncState.Update, flipAt: Long): ByteArray {
+        val payload = SyncCodec.PayloadWriter()
+        update.writeTo(payload)
+        payload.writeVarint(flipAt)
+        return syncEncoder.encode(SyncCodec.TYPE_PAGE_CHANGE, payload)
+    }
+
+    // Server only: sends a page change to the clients, encoded once, and times their acks
+    private fun broadcastPageChange(update: PageSyncState.Update, flipAt: Long, except: SyncHub.Peer?) {
+        lastBroadcastNanos = System.nanoTime()
+        lastBroadcast = update
+        hub.broadcast(pageChangeFrame(update, flipAt), SyncCodec.TYPE_PAGE_CHANGE, except)
+    }
+
     private fun setupListeners() {
         // Touch navigation on PDF page
         pdfPageView.setOnClickListener { view ->
@@ -151,16 +528,16 @@ class MainActivity : AppCompatActivity() {
 
             when (readingMode) {
                 SettingsActivity.MODE_ODD_EVEN -> {
-                    // Server (left page) - tap to go previous
+                    // Server (left page) - tap to go back a spread
                     if (isLeftPage) {
-                        if (currentPageIndex >= 2) {
-                            showPage(currentPageIndex - 2, true)
+                        if (currentPageIndex >= spreadWidth) {
+                            showPage(currentPageIndex - spreadWidth, true)
                         }
                     }
-                    // Client (right page) - tap to go next
+                    // Clients - tap to go forward a spread
                     else {
-                        if (currentPageIndex + 2 < totalPages) {
-                            showPage(currentPageIndex + 2, true)
+                        if (currentPageIndex + spreadWidth < totalPages) {
+                            showPage(currentPageIndex + spreadWidth, true)
                         }
                     }
                 }
@@ -196,197 +573,385 @@ class MainActivity : AppCompatActivity() {
         openFilePicker()
     }
 
-    private fun openPdf(file: File) {
-        try {
-            val fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY)
-            pdfRenderer = PdfRenderer(fileDescriptor)
-            totalPages = pdfRenderer!!.pageCount
+    private fun openStoredPdf(entry: DocumentStore.Entry) {
+        val file = documentStore.fileFor(entry)
+
+        // Each renderer in the worker's pool gets its own descriptor
+        val opener = { ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY) }
+
+        openDocument(opener, documentId(entry.quickKey)) { e ->
+            println("DEBUG: Error opening PDF: ${e.message}")
+        }
+    }
+
+    private fun openDocument(opener: () -> ParcelFileDescriptor, documentId: String, onFailure: (Exception) -> Unit) {
+        renderWorker.open(opener, documentId, { pageCount ->
+            totalPages = pageCount
+            pageSync.reset(0)
+            prefetchPlanner.reset()
 
             // Calculate start page based on reading mode
-            val startPage = when (readingMode) {
-                SettingsActivity.MODE_ODD_EVEN -> {
-                    // Server starts on page 0 (left), Client starts on page 1 (right)
-                    if (isLeftPage) 0 else 1
-                }
-                SettingsActivity.MODE_SEQUENTIAL -> {
-                    // Server starts on page 0, Client starts on page 1
-                    if (isLeftPage) 0 else 1
-                }
-                else -> if (isLeftPage) 0 else 1
-            }
+            // Server starts on page 0 (left), every client on the page of its slot
+            val startPage = slot
             showPage(startPage, false) // Don't send sync message on initial load
 
             // Send PDF loaded message to other device
-            sendSyncMessage("PDF_LOADED:$totalPages")
+            sendSyncMessage(syncEncoder.encodeVarints(SyncCodec.TYPE_PDF_LOADED, totalPages.toLong()), "PDF_LOADED:$totalPages")
+        }, onFailure)
+    }
 
-        } catch (e: Exception) {
-            println("DEBUG: Error opening PDF: ${e.message}")
+    /**
+     * Shows [pageIndex]. With [flipAt] (local elapsedRealtimeNanos, 0 for right away)
+     * the rendered page is held back until then, so both devices turn together.
+     */
+    private fun showPage(pageIndex: Int, sendSync: Boolean, flipAt: Long = 0L) {
+        if (pageIndex < 0 || pageIndex >= totalPages) {
+            return
+        }
+
+        val start = System.nanoTime()
+        turnStats.beginTurn()
+        currentPageIndex = pageIndex
+        prefetchPlanner.onTurn(pageIndex, start)
+        cancelScheduledFlip()
+        cancelRemoteWait()
+
+        // Local turns in flip mode pick the moment; remote ones were given it
+        val flipTime = if (sendSync) plannedFlipTime() else flipAt
+
+        // Thin-client mode asks the other device for the page and its neighbours instead
+        val remote = remoteRender && renderHelper()?.shouldRenderRemotely(renderWorker.averageRenderNanos) == true
+        if (!remote || !requestRemotePages(pageIndex, flipTime)) {
+            // Rendering happens on the worker; the main thread only displays the result.
+            // Only the newest request is delivered, so a burst of taps renders ~once
+            renderWorker.requestPage(pageIndex) { result ->
+                presentPage(result, flipTime)
+            }
+        }
+
+        // Only local turns are sent; pages shown for a remote update never echo back
+        if (sendSync) {
+            val update = pageSync.localTurn(anchorFor(pageIndex))
+            if (isServer) {
+                broadcastPageChange(update, flipTime, null)
+            } else {
+                writeFrame(pageChangeFrame(update, flipTime), SyncCodec.TYPE_PAGE_CHANGE)
+            }
+            println("DEBUG: Sent sync message: PAGE_CHANGE:$update flipAt=$flipTime")
         }
+
+        if (!remote) prefetchAround(pageIndex)
+        turnStats.addMainThreadTime(System.nanoTime() - start)
     }
 
-    private fun showPage(pageIndex: Int, sendSync: Boolean) {
-        if (pageIndex < 0 || pageIndex >= totalPages || pdfRenderer == null) {
-            return
+    // A page asked of the other device, shown when it arrives or rendered here on timeout
+    private inner class RemoteWait(val pageIndex: Int, val flipAt: Long) : Runnable {
+        override fun run() {
+            remoteWait = null
+            renderHelper()?.onTimeout()
+            renderWorker.requestPage(pageIndex) { result -> presentPage(result, flipAt) }
         }
+    }
 
-        currentPage?.close()
+    // Requests the uncached pages around pageIndex. Returns false when the page itself
+    // is already cached and can be shown right away
+    private fun requestRemotePages(pageIndex: Int, flipAt: Long): Boolean {
+        val wanted = (intArrayOf(pageIndex) + prefetchPages(pageIndex))
+            .filter { it in 0 until totalPages && !renderWorker.isCached(it) }
+        val helper = renderHelper() ?: return false
+        if (wanted.isNotEmpty()) helper.request(wanted.toIntArray(), totalPages)
+        if (wanted.firstOrNull() != pageIndex) return false
+
+        val wait = RemoteWait(pageIndex, flipAt)
+        remoteWait = wait
+        mainHandler.postDelayed(wait, helper.timeoutNanos(renderWorker.averageRenderNanos) / 1_000_000)
+        return true
+    }
 
-        currentPage = pdfRenderer?.openPage(pageIndex)
-        currentPageIndex = pageIndex
+    // Opened in place or from the store, a document goes by its quick key
+    private fun documentId(quickKey: String) = "quick:$quickKey"
 
-        // Create bitmap for the page
-        val page = currentPage!!
-        val bitmap = Bitmap.createBitmap(page.width * 2, page.height * 2, Bitmap.Config.ARGB_8888)
+    private fun isOpen(entry: DocumentStore.Entry) = renderWorker.documentId == documentId(entry.quickKey)
 
-        // Fill with white background first
-        bitmap.eraseColor(android.graphics.Color.WHITE)
+    // Thin-client pages come from the first peer: the server, on a client
+    private fun renderHelper(): RemotePageRenderer? = hub.peers().firstOrNull()?.let { links[it]?.remotePages }
 
-        // Render the page
-        page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)
+    private fun cancelRemoteWait() {
+        remoteWait?.let { mainHandler.removeCallbacks(it) }
+        remoteWait = null
+    }
 
-        // Display the page
-        pdfPageView.setImageBitmap(bitmap)
+    private val remotePageListener = object : RemotePageRenderer.Listener {
+        override fun onRemotePage(pageIndex: Int) {
+            runOnUiThread {
+                val wait = remoteWait ?: return@runOnUiThread
+                if (wait.pageIndex != pageIndex || currentPageIndex != pageIndex) return@runOnUiThread
+                cancelRemoteWait()
+                // Now cached, so this delivers right away
+                renderWorker.requestPage(pageIndex) { result -> presentPage(result, wait.flipAt) }
+            }
+        }
+    }
 
-        // Send sync message to other device if requested and not already syncing
-        if (sendSync && !isSyncing) {
-            sendSyncMessage("PAGE_CHANGE:$pageIndex")
+    // Local time to flip a turn made here, or 0 when flipping right away
+    private fun plannedFlipTime(): Long {
+        val clocks = hub.peers().map { it.clock }
+        if (!syncFlip || clocks.isEmpty() || clocks.any { !it.hasEstimate() }) return 0L
+
+        // Long enough for the message to reach the slowest peer and for it to render.
+        // We don't know its render time, so ours stands in for it. A client's turn is
+        // relayed by the server, so it takes two hops to the other clients
+        val hops = if (isServer) 1 else 2
+        val lead = hops * clocks.maxOf { it.roundTripNanos() / 2 + 3 * it.jitterNanos() } +
+                maxOf(renderWorker.averageRenderNanos, 0L)
+        return SystemClock.elapsedRealtimeNanos() + lead.coerceIn(MIN_FLIP_LEAD_NANOS, MAX_FLIP_LEAD_NANOS)
+    }
+
+    private fun presentPage(result: PageRenderWorker.RenderResult, flipAt: Long) {
+        val delayNanos = flipAt - SystemClock.elapsedRealtimeNanos()
+        if (flipAt == 0L || delayNanos <= 0) {
+            displayPage(result)
+            if (flipAt != 0L && !result.isPreview) onFlipped(result.pageIndex)
+            return
+        }
+
+        // The full page follows before the flip; there's nothing to show a preview for
+        if (result.isPreview) {
+            bitmapPool.release(result.bitmap)
+            return
         }
+
+        heldBitmap = result.bitmap
+        val flip = Runnable {
+            scheduledFlip = null
+            heldBitmap = null
+            displayPage(result)
+            onFlipped(result.pageIndex)
+        }
+        scheduledFlip = flip
+        mainHandler.postDelayed(flip, delayNanos / 1_000_000)
     }
 
-    private fun sendSyncMessage(message: String) {
-        connectedThread?.write(message.toByteArray())
-        println("DEBUG: Sent sync message: $message")
+    private fun cancelScheduledFlip() {
+        scheduledFlip?.let { mainHandler.removeCallbacks(it) }
+        scheduledFlip = null
+        val held = heldBitmap ?: return
+        heldBitmap = null
+        if (held !== displayedBitmap && !pageCache.containsBitmap(held)) {
+            bitmapPool.release(held)
+        }
     }
 
-    private fun handleReceivedMessage(message: String) {
-        println("DEBUG: Received sync message: $message")
+    // Tells the other devices when our page of the spread actually changed
+    private fun onFlipped(pageIndex: Int) {
+        val shownAt = SystemClock.elapsedRealtimeNanos()
+        lastFlipAnchor = anchorFor(pageIndex)
+        lastFlipShownAt = shownAt
+        writeFrame(syncEncoder.encodeVarints(SyncCodec.TYPE_FLIP_DONE, lastFlipAnchor.toLong(), shownAt))
+        recordFlipSkew()
+    }
 
-        when {
-            message.startsWith("PAGE_CHANGE:") -> {
-                println("DEBUG: is PAGE_CHANGE: $message")
-                val otherDevicePageIndex = message.substringAfter("PAGE_CHANGE:").toIntOrNull()
-                if (otherDevicePageIndex != null) {
-                    // Calculate what page this device should show based on reading mode
-                    val myPageIndex = when (readingMode) {
-                        SettingsActivity.MODE_ODD_EVEN -> {
-                            if (isLeftPage) {
-                                otherDevicePageIndex - 1
-                            } else {
-                                otherDevicePageIndex + 1
-                            }
-                        }
-                        SettingsActivity.MODE_SEQUENTIAL -> {
-                            if (isLeftPage) {
-                                otherDevicePageIndex - 1
-                            } else {
-                                otherDevicePageIndex + 1
-                            }
-                        }
-                        else -> {
-                            if (isLeftPage) {
-                                otherDevicePageIndex - 1
-                            } else {
-                                otherDevicePageIndex + 1
-                            }
-                        }
-                    }
+    // Both sides of one flip are known once the anchors match, per peer
+    private fun recordFlipSkew() {
+        if (lastFlipAnchor < 0) return
+        for (link in links.values) {
+            if (link.flipAnchor != lastFlipAnchor) continue
+            val skew = link.flipShownAt - lastFlipShownAt
+            link.flipAnchor = -1
+
+            flipSkewCount++
+            flipSkewTotalNanos += Math.abs(skew)
+            flipSkewMaxNanos = maxOf(flipSkewMaxNanos, Math.abs(skew))
+            println("DEBUG: Flip skew to slot ${link.peer.slot} ${skew / 1000}us (avg=${flipSkewTotalNanos / flipSkewCount / 1000}us " +
+                    "max=${flipSkewMaxNanos / 1000}us over $flipSkewCount flips), clock ${link.peer.clock.stats()}")
+        }
+    }
 
-                    if (myPageIndex >= 0 && myPageIndex < totalPages && myPageIndex != currentPageIndex) {
-                        isSyncing = true
-                        runOnUiThread {
-                            showPage(myPageIndex, false) // Don't send sync message back
-                        }
-                        Handler(Looper.getMainLooper()).postDelayed({
-                            isSyncing = false
-                        }, 500)
-                    }
-                }
-            }
-            message.startsWith("PDF_LOADED:") -> {
-                // Just log, no UI feedback
-                println("DEBUG: Other device loaded PDF")
-            }
-            message.startsWith("MODE_CHANGE:") -> {
-                val newMode = message.substringAfter("MODE_CHANGE:")
-                if (newMode != readingMode) {
-                    readingMode = newMode
-                    // Update SharedPreferences to keep both devices in sync
-                    sharedPreferences.edit()
-                        .putString(SettingsActivity.READING_MODE_KEY, newMode)
-                        .apply()
-                    println("DEBUG: Reading mode changed to: $newMode")
-                }
-            }
+    // Time requests go straight to the writer; they are too frequent to log
+    private val clockSyncTick = object : Runnable {
+        override fun run() {
+            writeFrame(syncEncoder.encodeVarints(SyncCodec.TYPE_TIME_REQUEST, SystemClock.elapsedRealtimeNanos()))
+            clockSyncRounds++
+            val interval = if (clockSyncRounds < CLOCK_SYNC_BURST) CLOCK_SYNC_BURST_INTERVAL_MS else CLOCK_SYNC_INTERVAL_MS
+            mainHandler.postDelayed(this, interval)
         }
     }
 
-    // Thread for managing Bluetooth communication
-    private inner class ConnectedThread(private val socket: BluetoothSocket) : Thread() {
-        private val inputStream: InputStream?
-        private val outputStream: OutputStream?
-        private val handler = Handler(Looper.getMainLooper())
+    private fun displayPage(result: PageRenderWorker.RenderResult) {
+        val start = System.nanoTime()
+        pdfPageView.setImageBitmap(result.bitmap)
 
-        init {
-            var tmpIn: InputStream? = null
-            var tmpOut: OutputStream? = null
+        // The previous page is free once neither the view nor the cache holds it
+        val previous = displayedBitmap
+        displayedBitmap = result.bitmap
+        if (previous != null && previous !== result.bitmap && !pageCache.containsBitmap(previous)) {
+            bitmapPool.release(previous)
+        }
+        turnStats.addMainThreadTime(System.nanoTime() - start)
 
-            try {
-                tmpIn = socket.inputStream
-                tmpOut = socket.outputStream
-            } catch (e: IOException) {
-                println("DEBUG: Error creating streams: ${e.message}")
-            }
+        // A preview is followed by the full-quality page, which ends the turn
+        if (result.isPreview) {
+            turnStats.markFirstImage()
+            println("DEBUG: Showed preview of page ${result.pageIndex} (render=${result.renderNanos / 1_000_000}ms)")
+            return
+        }
+        turnStats.endTurn()
 
-            inputStream = tmpIn
-            outputStream = tmpOut
+        if (loadStartNanos != 0L) {
+            println("DEBUG: Time to first page: ${(System.nanoTime() - loadStartNanos) / 1_000_000}ms")
+            loadStartNanos = 0
+            pushToPeer()
         }
+        println("DEBUG: Showed page ${result.pageIndex} (cached=${result.fromCache}, render=${result.renderNanos / 1_000_000}ms)")
+        println("DEBUG: Page turns: ${turnStats.summary()}")
+        println("DEBUG: Page cache: ${pageCache.stats()}")
+        println("DEBUG: Prefetch: ${prefetchPlanner.stats()}")
+        println("DEBUG: Render worker: ${renderWorker.stats()}")
+        println("DEBUG: Bitmap pool: ${bitmapPool.stats()}")
+        println("DEBUG: Sync links: ${hub.stats()}")
+        println("DEBUG: Clock sync: ${hub.peers().joinToString { "slot ${it.slot} ${it.clock.stats()}" }}")
+        if (remoteRender) println("DEBUG: Remote render: ${renderHelper()?.stats()}")
+
+        // Keeps the other devices' planners current as our render times settle
+        links.values.forEach { it.remotePages.sendInfo(pdfPageView.width, pdfPageView.height, renderWorker.averageRenderNanos) }
+    }
 
-        override fun run() {
-            val buffer = ByteArray(1024)
-            var bytes: Int
+    // The spread is identified by its left page; the device in slot s shows the page s after it
+    private fun anchorFor(pageIndex: Int): Int = pageIndex - slot
 
-            println("DEBUG: MainActivity ConnectedThread started, listening for sync messages...")
+    private fun pageForAnchor(anchor: Int): Int = anchor + slot
 
-            while (true) {
-                try {
-                    bytes = inputStream!!.read(buffer)
-                    val receivedMessage = String(buffer, 0, bytes).trim()
+    // Pages this device is likely to show next after a tap or a sync from the other device
+    private fun prefetchAround(pageIndex: Int) {
+        renderWorker.prefetch(prefetchPages(pageIndex))
+    }
 
-                    println("DEBUG: Received message: $receivedMessage")
+    private fun prefetchPages(pageIndex: Int): IntArray {
+        val step = if (readingMode == SettingsActivity.MODE_SEQUENTIAL) 1 else spreadWidth
+        val pageBytes = displayedBitmap?.allocationByteCount?.toLong() ?: 0L
+        return prefetchPlanner.plan(pageIndex, totalPages, step, renderWorker.averageRenderNanos, pageBytes)
+    }
 
-                    // Handle the received message
-                    handleReceivedMessage(receivedMessage)
+    // Frames with a coalesce key replace any queued frame with the same key
+    private fun sendSyncMessage(frame: ByteArray, description: String, coalesceKey: Int = SyncWriter.NO_COALESCE) {
+        writeFrame(frame, coalesceKey)
+        println("DEBUG: Sent sync message: $description")
+    }
 
-                } catch (e: IOException) {
-                    println("DEBUG: Connection lost: ${e.message}")
-                    break
+    // Called on the peer's reader thread; payload is only valid during the call
+    private fun handleReceivedMessage(peer: SyncHub.Peer, type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {
+        // Taken first so time sync samples don't include our own handling
+        val receivedAt = SystemClock.elapsedRealtimeNanos()
+
+        when (type) {
+            SyncCodec.TYPE_TIME_REQUEST -> {
+                val requestSentAt = payload.readVarint()
+                peer.send(
+                    syncEncoder.encodeVarints(
+                        SyncCodec.TYPE_TIME_RESPONSE, requestSentAt, receivedAt, SystemClock.elapsedRealtimeNanos()
+                    ),
+                    SyncWriter.NO_COALESCE
+                )
+                return
+            }
+            SyncCodec.TYPE_TIME_RESPONSE -> {
+                peer.clock.addSample(payload.readVarint(), payload.readVarint(), payload.readVarint(), receivedAt)
+                return
+            }
+            SyncCodec.TYPE_PAGE_ACK -> {
+                // How long the last page change took to reach this client and come back
+                val sent = lastBroadcast
+                if (sent != null && sent.isAckedBy(payload)) {
+                    peer.recordLatency(System.nanoTime() - lastBroadcastNanos)
                 }
+                return
             }
         }
 
-        fun write(bytes: ByteArray) {
-            try {
-                outputStream?.write(bytes)
-            } catch (e: IOException) {
-                println("DEBUG: Error writing data: ${e.message}")
-            }
-        }
+        // Chunks arrive by the hundred, so transfer frames skip the log
+        val link = links[peer] ?: return
+        if (link.transfer.handleFrame(type, payload)) return
+        if (link.remotePages.handleFrame(type, payload)) return
+
+        println("DEBUG: Received sync message from slot ${peer.slot}: type=$type seq=$sequence")
+
+        when (type) {
+            SyncCodec.TYPE_PAGE_CHANGE -> {
+                val update = PageSyncState.Update.readFrom(payload)
+                val peerFlipAt = payload.readVarint()
+                println("DEBUG: is PAGE_CHANGE: $update flipAt=$peerFlipAt")
+                if (!isServer) {
+                    val ack = SyncCodec.PayloadWriter()
+                    update.writeAckTo(ack)
+                    peer.send(syncEncoder.encode(SyncCodec.TYPE_PAGE_ACK, ack), SyncCodec.TYPE_PAGE_ACK)
+                }
 
-        fun cancel() {
-            try {
-                socket.close()
-            } catch (e: IOException) {
-                println("DEBUG: Error closing connected socket: ${e.message}")
+                // Older or duplicate updates lose against what we already have
+                if (pageSync.applyRemote(update)) {
+                    // The flip time is in the sender's clock
+                    val flipAt = if (peerFlipAt != 0L && peer.clock.hasEstimate()) peer.clock.toLocalTime(peerFlipAt) else 0L
+                    // The server passes a client's turn on to the other clients, in its own clock
+                    if (isServer) broadcastPageChange(update, flipAt, peer)
+
+                    runOnUiThread {
+                        // Read the state again, a newer update may have landed in the meantime
+                        val current = pageSync.current()
+                        val myPageIndex = pageForAnchor(current.anchor)
+                        if (myPageIndex >= 0 && myPageIndex < totalPages && myPageIndex != currentPageIndex) {
+                            // Don't send sync message back
+                            showPage(myPageIndex, false, if (current.version == update.version) flipAt else 0L)
+                        }
+                    }
+                }
+            }
+            SyncCodec.TYPE_SLOT -> {
+                val newSlot = payload.readInt()
+                val width = payload.readInt()
+                runOnUiThread { applySlot(newSlot, width) }
+            }
+            SyncCodec.TYPE_FLIP_DONE -> {
+                val anchor = payload.readInt()
+                val shownAt = peer.clock.toLocalTime(payload.readVarint())
+                runOnUiThread {
+                    link.flipAnchor = anchor
+                    link.flipShownAt = shownAt
+                    recordFlipSkew()
+                }
             }
+            SyncCodec.TYPE_PDF_LOADED -> {
+                // Just log, no UI feedback
+                println("DEBUG: Slot ${peer.slot} loaded PDF (${payload.readInt()} pages)")
+            }
+            SyncCodec.TYPE_MODE_CHANGE -> {
+                val newMode = payload.readString()
+                if (isServer) hub.broadcast(syncEncoder.encodeString(SyncCodec.TYPE_MODE_CHANGE, newMode), SyncCodec.TYPE_MODE_CHANGE, peer)
+                if (newMode != readingMode) {
+                    readingMode = newMode
+                    // Update SharedPreferences to keep every device in sync
+                    sharedPreferences.edit()
+                        .putString(SettingsActivity.READING_MODE_KEY, newMode)
+                        .apply()
+                    println("DEBUG: Reading mode changed to: $newMode")
+                }
+            }
+            else -> println("DEBUG: Ignoring unknown sync message type $type")
         }
     }
 
     override fun onDestroy() {
         super.onDestroy()
-        currentPage?.close()
-        pdfRenderer?.close()
-        connectedThread?.cancel()
-        bluetoothSocket?.close()
+        mainHandler.removeCallbacks(clockSyncTick)
+        cancelScheduledFlip()
+        cancelRemoteWait()
+        links.values.forEach { it.close() }
+        renderWorker.close()
+        closeSession()
+    }
+
+    // Only our own session; a reader created after this one may have started its own
+    private fun closeSession() {
+        val connectionManager = BluetoothConnectionManager.getInstance()
+        if (::hub.isInitialized && connectionManager.hub === hub) connectionManager.closeSession()
     }
 
     override fun onCreateOptionsMenu(menu: Menu?): Boolean {
@@ -408,7 +973,6 @@ class MainActivity : AppCompatActivity() {
     override fun onBackPressed() {
         super.onBackPressed()
         // Clean up connections when going back
-        connectedThread?.cancel()
-        bluetoothSocket?.close()
+        closeSession()
     }
 }
\ No newline at end of file
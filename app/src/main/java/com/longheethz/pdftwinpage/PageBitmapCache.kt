@@ -0,0 +1,126 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.Bitmap
+
+/**
+ * Byte-budgeted LRU cache of rendered PDF pages.
+ *
+ * Entries are keyed by everything that affects the pixels, so a page rendered for
+ * another document, size or bitmap config is never handed out by mistake.
+ * [onRemoved] is called with every bitmap that leaves the cache, outside the cache lock.
+ */
+class PageBitmapCache(
+    private val maxBytes: Long,
+    private val onRemoved: (Bitmap) -> Unit = {}
+) {
+
+    data class Key(
+        val documentId: String,
+        val pageIndex: Int,
+        val width: Int,
+        val height: Int,
+        val config: Bitmap.Config
+    )
+
+    // accessOrder = true keeps the least recently used entry at the head
+    private val entries = LinkedHashMap<Key, Bitmap>(16, 0.75f, true)
+    private var currentBytes = 0L
+
+    var hitCount = 0L
+        private set
+    var missCount = 0L
+        private set
+    var evictionCount = 0L
+        private set
+
+    @Synchronized
+    fun get(key: Key): Bitmap? {
+        val bitmap = entries[key]
+        if (bitmap != null) hitCount++ else missCount++
+        return bitmap
+    }
+
+    /**
+     * Runs [block] with the cached bitmap under the cache lock, so no other thread can
+     * evict it before [block] has e.g. posted it for display. Returns false on a miss.
+     */
+    fun withCached(key: Key, block: (Bitmap) -> Unit): Boolean {
+        synchronized(this) {
+            val bitmap = get(key) ?: return false
+            block(bitmap)
+            return true
+        }
+    }
+
+    /** Checks for an entry without touching the LRU order or the hit/miss counters. */
+    @Synchronized
+    fun contains(key: Key): Boolean = entries.containsKey(key)
+
+    /** Checks whether [bitmap] itself is still held by the cache, under any key. */
+    @Synchronized
+    fun containsBitmap(bitmap: Bitmap): Boolean = entries.values.any { it === bitmap }
+
+    /**
+     * Caches [bitmap] and returns the bitmap now cached under [key]. When another render
+     * of the same key got there first, that one stays (it may already be on screen) and
+     * [bitmap] goes to [onRemoved]. [onCached] gets the returned bitmap under the cache
+     * lock, like [withCached].
+     */
+    fun put(key: Key, bitmap: Bitmap, onCached: (Bitmap) -> Unit = {}): Bitmap {
+        val size = bitmap.allocationByteCount.toLong()
+        if (size > maxBytes) { // Would evict everything and still not fit
+            onCached(bitmap)
+            return bitmap
+        }
+
+        val removed = ArrayList<Bitmap>()
+        val cached = synchronized(this) {
+            val existing = entries[key]
+            val kept = if (existing != null) {
+                if (existing !== bitmap) removed.add(bitmap)
+                existing
+            } else {
+                entries[key] = bitmap
+                currentBytes += size
+                trimToSize(removed)
+                bitmap
+            }
+            onCached(kept)
+            kept
+        }
+        removed.forEach(onRemoved)
+        return cached
+    }
+
+    fun clear() {
+        val removed = synchronized(this) {
+            ArrayList(entries.values).also {
+                entries.clear()
+                currentBytes = 0
+            }
+        }
+        removed.forEach(onRemoved)
+    }
+
+    @Synchronized
+    fun stats(): String {
+        return "hits=$hitCount misses=$missCount evictions=$evictionCount " +
+                "entries=${entries.size} bytes=$currentBytes/$maxBytes"
+    }
+
+    private fun trimToSize(removed: MutableList<Bitmap>) {
+        val iterator = entries.entries.iterator()
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            val eldest = iterator.next()
+            iterator.remove()
+            currentBytes -= eldest.value.allocationByteCount
+            evictionCount++
+            removed.add(eldest.value)
+        }
+    }
+
+    companion object {
+        // Same rule of thumb as the Android bitmap caching guide: 1/8 of the heap
+        fun defaultBudgetBytes(): Long = Runtime.getRuntime().maxMemory() / 8
+    }
+}
@@ -0,0 +1,440 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.ColorMatrix
+import android.graphics.ColorMatrixColorFilter
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.pdf.PdfRenderer
+import android.os.Handler
+import android.os.Looper
+import android.os.ParcelFileDescriptor
+import android.util.Size
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Owns the document's PdfRenderers and does all rendering on a bounded executor.
+ *
+ * PdfRenderer is not thread-safe, so each render checks an instance out of a
+ * [PdfRendererPool]; with [parallelism] > 1 the visible page and prefetched pages
+ * render at the same time on separate renderers.
+ * Finished pages are handed back on the main thread, which only has to display them.
+ *
+ * Requests are latest-wins: every [requestPage] bumps [generation], and work queued
+ * for an older generation is dropped before it starts or discarded when it finishes.
+ *
+ * Queued work runs by priority: the visible page first, then prefetches, then pages
+ * rendered for the other device, so a peer asking for a window of pages can't hold
+ * up the page the reader here is waiting for.
+ */
+class PageRenderWorker(
+    private val cache: PageBitmapCache,
+    private val bitmapPool: BitmapPool,
+    private val targetCalculator: RenderTargetCalculator = RenderTargetCalculator(),
+    private val parallelism: Int = PdfRendererPool.defaultParallelism()
+) {
+
+    class RenderResult(
+        val pageIndex: Int,
+        val bitmap: Bitmap,
+        val fromCache: Boolean,
+        val renderNanos: Long,
+        val isPreview: Boolean = false
+    )
+
+    /**
+     * When on, a page that isn't cached is first rendered at low resolution and
+     * delivered as a preview, then again at full quality. Only kicks in once full
+     * renders have been measured as slow enough for the extra pass to pay off.
+     */
+    @Volatile var progressive = true
+
+    /**
+     * One of the SettingsActivity render formats. Reduced color pages are stored as
+     * RGB_565 and grayscale pages as ALPHA_8 ink coverage (drawn black over the page
+     * view's white background), so the cache holds 2x or 4x as many pages.
+     * Callers should clear the cache after changing it.
+     */
+    @Volatile var renderFormat = SettingsActivity.FORMAT_COLOR
+
+    // Lower priorities run first, equal ones in the order they were queued
+    private class Task(val priority: Int, val sequence: Long, val block: () -> Unit) : Runnable, Comparable<Task> {
+        override fun run() = block()
+
+        override fun compareTo(other: Task): Int =
+            if (priority != other.priority) priority.compareTo(other.priority) else sequence.compareTo(other.sequence)
+    }
+
+    private val threadCount = AtomicInteger()
+    private val taskSequence = AtomicLong()
+    private val executor = ThreadPoolExecutor(
+        parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, PriorityBlockingQueue<Runnable>()
+    ) { runnable ->
+        Thread(runnable, "PdfRenderWorker-${threadCount.incrementAndGet()}")
+    }
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    // Everything tied to one opened document, so renders still running for the
+    // previous one can't leak page sizes or cache keys into the new one
+    private class OpenDocument(val id: String, val pool: PdfRendererPool) {
+        val pageSizes = ConcurrentHashMap<Int, Size>()
+    }
+
+    // Swapped by open(); renders that still hold the old pool fail and are dropped
+    @Volatile private var document: OpenDocument? = null
+
+    /** Id of the open document, or null before one is open. */
+    val documentId: String?
+        get() = document?.id
+
+    /** Page count of the open document, 0 before one is open. */
+    val pageCount: Int
+        get() = document?.pool?.pageCount ?: 0
+
+    // Set from the main thread whenever the page view is laid out with a new size
+    @Volatile private var viewSize = Size(0, 0)
+
+    // alpha = 255 - luminance, so white paper is transparent and black text opaque
+    private val inkFilter = ColorMatrixColorFilter(ColorMatrix(floatArrayOf(
+        0f, 0f, 0f, 0f, 0f,
+        0f, 0f, 0f, 0f, 0f,
+        0f, 0f, 0f, 0f, 0f,
+        -0.299f, -0.587f, -0.114f, 0f, 255f
+    )))
+
+    // Updated from several render threads at once; moving average of full-quality render time, -1 until known
+    private val averageRender = AtomicLong(-1L)
+    val averageRenderNanos: Long
+        get() = averageRender.get()
+
+    private val generation = AtomicLong()
+    private val requested = AtomicInteger()
+    private val rendered = AtomicInteger()
+    private val droppedBeforeStart = AtomicInteger()
+    private val discardedLate = AtomicInteger()
+    private val previews = AtomicInteger()
+    private val peerRendered = AtomicInteger()
+    private val remoteAdopted = AtomicInteger()
+
+    /**
+     * Opens a new document, replacing the current one. [opener] is called once per
+     * renderer in the pool, so it must hand out a fresh descriptor every time.
+     */
+    fun open(
+        opener: () -> ParcelFileDescriptor,
+        newDocumentId: String,
+        onOpened: (pageCount: Int) -> Unit,
+        onError: (Exception) -> Unit
+    ) {
+        execute(PRIORITY_VISIBLE) {
+            document?.pool?.close()
+            document = null
+            cache.clear()
+            averageRender.set(-1L)
+
+            try {
+                val pool = PdfRendererPool(opener, parallelism)
+                document = OpenDocument(newDocumentId, pool)
+                val pageCount = pool.pageCount
+                mainHandler.post { onOpened(pageCount) }
+            } catch (e: Exception) {
+                mainHandler.post { onError(e) }
+            }
+        }
+    }
+
+    /**
+     * Delivers [pageIndex] to [callback] on the main thread. Cached pages are delivered
+     * before this returns, without waiting for the render thread. In [progressive] mode
+     * the callback may get a preview first and the full-quality page after it.
+     */
+    fun requestPage(pageIndex: Int, callback: (RenderResult) -> Unit) {
+        val requestGeneration = generation.incrementAndGet()
+        requested.incrementAndGet()
+
+        val doc = document
+        val size = doc?.pageSizes?.get(pageIndex)
+        if (doc != null && size != null) {
+            val key = cacheKey(doc, pageIndex, size)
+            if (cache.contains(key)) {
+                val bitmap = cache.get(key)
+                if (bitmap != null) {
+                    callback(RenderResult(pageIndex, bitmap, true, 0))
+                    return
+                }
+            }
+        }
+
+        execute(PRIORITY_VISIBLE) {
+            // Another page was requested while this one sat in the queue
+            if (requestGeneration != generation.get()) {
+                droppedBeforeStart.incrementAndGet()
+                return@execute
+            }
+
+            runSafely { renderVisiblePage(pageIndex, requestGeneration, callback) }
+        }
+    }
+
+    /**
+     * Renders [pageIndices] into the cache in order, skipping pages already cached.
+     * Dropped if another page is requested before it gets to run.
+     */
+    fun prefetch(pageIndices: IntArray) {
+        val requestGeneration = generation.get()
+        for (pageIndex in pageIndices) {
+            execute(PRIORITY_PREFETCH) {
+                if (requestGeneration != generation.get()) return@execute
+                val doc = document ?: return@execute
+                if (pageIndex < 0 || pageIndex >= doc.pool.pageCount) return@execute
+                runSafely {
+                    val key = cacheKey(doc, pageIndex, pageSize(doc, pageIndex))
+                    if (!cache.contains(key)) {
+                        cache.put(key, renderFull(doc.pool, pageIndex, key))
+                    }
+                }
+            }
+        }
+    }
+
+    /** Whether [pageIndex] is cached at the current size and format, without rendering anything. */
+    fun isCached(pageIndex: Int): Boolean {
+        val doc = document ?: return false
+        val size = doc.pageSizes[pageIndex] ?: return false
+        return cache.contains(cacheKey(doc, pageIndex, size))
+    }
+
+    /**
+     * Renders [pageIndices] for the other device's [viewWidth] x [viewHeight] view, in
+     * order, and hands each ARGB_8888 bitmap to [onRendered] on the render thread. The
+     * bitmap comes from the pool and [onRendered] must release it. Nothing is cached.
+     * Pages still queued once [isCurrent] turns false are dropped; every peer has its own.
+     * Runs after any local render or prefetch that is waiting.
+     */
+    fun renderForPeer(
+        pageIndices: IntArray,
+        viewWidth: Int,
+        viewHeight: Int,
+        isCurrent: () -> Boolean,
+        onRendered: (pageIndex: Int, pageSize: Size, bitmap: Bitmap, renderNanos: Long) -> Unit
+    ) {
+        for (pageIndex in pageIndices) {
+            execute(PRIORITY_PEER) {
+                if (!isCurrent()) return@execute
+                val doc = document ?: return@execute
+                if (pageIndex < 0 || pageIndex >= doc.pool.pageCount) return@execute
+                runSafely {
+                    val start = System.nanoTime()
+                    val size = pageSize(doc, pageIndex)
+                    val target = targetCalculator.targetFor(size.width, size.height, viewWidth, viewHeight)
+                    val bitmap = render(doc.pool, pageIndex, target.width, target.height, Bitmap.Config.ARGB_8888)
+                    peerRendered.incrementAndGet()
+                    onRendered(pageIndex, size, bitmap, System.nanoTime() - start)
+                }
+            }
+        }
+    }
+
+    /** Runs [block] on a render thread ahead of prefetches, e.g. decoding a page the other device rendered for us. */
+    fun runForReader(block: () -> Unit) = execute(PRIORITY_VISIBLE) { runSafely(block) }
+
+    /**
+     * Caches a page the other device rendered for us, so [requestPage] finds it.
+     * [pageWidth] and [pageHeight] are the page's size in points; [bitmap] is an
+     * ARGB_8888 bitmap from the pool, which this takes over. Returns false and
+     * releases it when it doesn't match the current document, size or format.
+     */
+    fun adoptRemotePage(documentId: String, pageIndex: Int, pageWidth: Int, pageHeight: Int, bitmap: Bitmap): Boolean {
+        val doc = document
+        if (doc == null || doc.id != documentId) {
+            bitmapPool.release(bitmap)
+            return false
+        }
+
+        val key = cacheKey(doc, pageIndex, Size(pageWidth, pageHeight))
+        // The view changed size while the page was on its way
+        if (key.width != bitmap.width || key.height != bitmap.height) {
+            bitmapPool.release(bitmap)
+            return false
+        }
+
+        doc.pageSizes.putIfAbsent(pageIndex, Size(pageWidth, pageHeight))
+        cache.put(key, convert(bitmap, key.config))
+        remoteAdopted.incrementAndGet()
+        return true
+    }
+
+    /**
+     * Updates the size pages are fitted to. Returns false when nothing changed,
+     * so callers only re-render on real size changes such as rotation.
+     */
+    fun setViewSize(width: Int, height: Int): Boolean {
+        if (width <= 0 || height <= 0) return false
+        if (viewSize.width == width && viewSize.height == height) return false
+        viewSize = Size(width, height)
+        return true
+    }
+
+    fun stats(): String {
+        return "requested=${requested.get()} rendered=${rendered.get()} " +
+                "dropped=${droppedBeforeStart.get()} discardedLate=${discardedLate.get()} " +
+                "previews=${previews.get()} avgRender=${averageRenderNanos / 1_000_000}ms " +
+                "forPeer=${peerRendered.get()} fromPeer=${remoteAdopted.get()}"
+    }
+
+    fun close() {
+        execute(PRIORITY_VISIBLE) {
+            document?.pool?.close()
+            document = null
+            cache.clear()
+        }
+        executor.shutdown()
+    }
+
+    private fun renderVisiblePage(pageIndex: Int, requestGeneration: Long, callback: (RenderResult) -> Unit) {
+        val doc = document ?: return
+        val pool = doc.pool
+        if (pageIndex < 0 || pageIndex >= pool.pageCount) return
+
+        val key = cacheKey(doc, pageIndex, pageSize(doc, pageIndex))
+        // Posted under the cache lock, so an eviction's release is queued behind the display
+        if (cache.withCached(key) { bitmap -> deliver(RenderResult(pageIndex, bitmap, true, 0), requestGeneration, callback) }) {
+            return
+        }
+
+        if (progressive && averageRenderNanos > PREVIEW_THRESHOLD_NANOS) {
+            val start = System.nanoTime()
+            val preview = render(
+                pool, pageIndex,
+                maxOf(1, key.width / PREVIEW_DOWNSCALE), maxOf(1, key.height / PREVIEW_DOWNSCALE),
+                Bitmap.Config.ARGB_8888
+            )
+            previews.incrementAndGet()
+            deliver(RenderResult(pageIndex, preview, false, System.nanoTime() - start, true), requestGeneration, callback)
+
+            // The reader may have moved on while the preview was rendering
+            if (requestGeneration != generation.get()) {
+                droppedBeforeStart.incrementAndGet()
+                return
+            }
+        }
+
+        val start = System.nanoTime()
+        val rendered = renderFull(pool, pageIndex, key)
+        val renderNanos = System.nanoTime() - start
+        // A prefetch may have cached the same page meanwhile; whichever is cached is shown
+        cache.put(key, rendered) { bitmap ->
+            deliver(RenderResult(pageIndex, bitmap, false, renderNanos), requestGeneration, callback)
+        }
+    }
+
+    private fun deliver(result: RenderResult, requestGeneration: Long, callback: (RenderResult) -> Unit) {
+        mainHandler.post {
+            // No longer the page the reader is waiting for (full renders stay cached)
+            if (requestGeneration != generation.get()) {
+                discardedLate.incrementAndGet()
+                // Previews never enter the cache, so nobody else will hand this back
+                if (result.isPreview) bitmapPool.release(result.bitmap)
+                return@post
+            }
+            callback(result)
+        }
+    }
+
+    private fun renderFull(pool: PdfRendererPool, pageIndex: Int, key: PageBitmapCache.Key): Bitmap {
+        val start = System.nanoTime()
+        val bitmap = render(pool, pageIndex, key.width, key.height, key.config)
+        val elapsed = System.nanoTime() - start
+
+        averageRender.updateAndGet { average -> if (average < 0) elapsed else (average * 3 + elapsed) / 4 }
+        rendered.incrementAndGet()
+        return bitmap
+    }
+
+    private fun render(pool: PdfRendererPool, pageIndex: Int, width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        // Pooled buffers come back already filled with a white background
+        val argb = bitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888, android.graphics.Color.WHITE)
+
+        try {
+            pool.withRenderer { pdf ->
+                pdf.openPage(pageIndex).use { page ->
+                    page.render(argb, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)
+                }
+            }
+        } catch (e: Exception) {
+            bitmapPool.release(argb)
+            throw e
+        }
+        return convert(argb, config)
+    }
+
+    // PdfRenderer only renders into ARGB_8888, so convert and recycle the scratch buffer
+    private fun convert(argb: Bitmap, config: Bitmap.Config): Bitmap {
+        if (config == Bitmap.Config.ARGB_8888) return argb
+
+        val width = argb.width
+        val height = argb.height
+        val bitmap = bitmapPool.acquire(width, height, config, android.graphics.Color.TRANSPARENT)
+        val paint = Paint(Paint.DITHER_FLAG).apply {
+            xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC)
+            if (config == Bitmap.Config.ALPHA_8) colorFilter = inkFilter
+        }
+        Canvas(bitmap).drawBitmap(argb, 0f, 0f, paint)
+        bitmapPool.release(argb)
+        return bitmap
+    }
+
+    private fun pageSize(doc: OpenDocument, pageIndex: Int): Size {
+        return doc.pageSizes.getOrPut(pageIndex) {
+            doc.pool.withRenderer { pdf ->
+                pdf.openPage(pageIndex).use { page -> Size(page.width, page.height) }
+            }
+        }
+    }
+
+    private fun execute(priority: Int, block: () -> Unit) {
+        executor.execute(Task(priority, taskSequence.getAndIncrement(), block))
+    }
+
+    // An exception escaping a pool thread would take the whole app down
+    private fun runSafely(block: () -> Unit) {
+        try {
+            block()
+        } catch (e: Exception) {
+            println("DEBUG: Page render failed: ${e.message}")
+        }
+    }
+
+    private fun cacheKey(doc: OpenDocument, pageIndex: Int, size: Size): PageBitmapCache.Key {
+        val view = viewSize
+        val target = targetCalculator.targetFor(size.width, size.height, view.width, view.height)
+        return PageBitmapCache.Key(doc.id, pageIndex, target.width, target.height, renderConfig())
+    }
+
+    private fun renderConfig(): Bitmap.Config {
+        return when (renderFormat) {
+            SettingsActivity.FORMAT_RGB_565 -> Bitmap.Config.RGB_565
+            SettingsActivity.FORMAT_GRAYSCALE -> Bitmap.Config.ALPHA_8
+            else -> Bitmap.Config.ARGB_8888
+        }
+    }
+
+    companion object {
+        private const val PRIORITY_VISIBLE = 0
+        private const val PRIORITY_PREFETCH = 1
+        private const val PRIORITY_PEER = 2
+
+        // Full renders faster than this show up quickly enough without a preview
+        private const val PREVIEW_THRESHOLD_NANOS = 30_000_000L
+
+        // Per side, so the preview pass has 1/16 of the pixels
+        private const val PREVIEW_DOWNSCALE = 4
+    }
+}
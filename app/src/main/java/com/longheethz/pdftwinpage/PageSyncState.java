@@ -0,0 +1,121 @@
+package com.longheethz.pdftwinpage;
+
+import java.net.ProtocolException;
+
+/**
+ * The shared reading position of a session, kept consistent without timers.
+ *
+ * The position is the spread's anchor page (the page the left device, slot 0,
+ * shows; the device in slot s shows anchor + s). Every change carries a version from a Lamport
+ * clock plus the id of the device that made it, and the highest (version, origin)
+ * pair wins on every device. Applying an update twice, or an older one after a
+ * newer one, changes nothing, so echoes and reordering are harmless and both
+ * devices converge as soon as they have seen the same updates.
+ */
+public class PageSyncState {
+
+    /** A position change as sent over the wire. */
+    public static final class Update {
+        public final int anchor;
+        public final long version;
+        public final int origin;
+
+        public Update(int anchor, long version, int origin) {
+            this.anchor = anchor;
+            this.version = version;
+            this.origin = origin;
+        }
+
+        /**
+         * Writes the PAGE_CHANGE fields. The origin goes out plus one, so the reset
+         * state's -1 still fits an unsigned varint.
+         */
+        public void writeTo(SyncCodec.PayloadWriter payload) {
+            payload.writeVarint(anchor);
+            writeAckTo(payload);
+        }
+
+        public static Update readFrom(SyncCodec.PayloadReader payload) throws ProtocolException {
+            return new Update(payload.readInt(), payload.readVarint(), readOrigin(payload));
+        }
+
+        /** Writes the PAGE_ACK fields, which name the update that arrived. */
+        public void writeAckTo(SyncCodec.PayloadWriter payload) {
+            payload.writeVarint(version);
+            payload.writeVarint(origin + 1L);
+        }
+
+        /** Whether a PAGE_ACK payload acknowledges this update. */
+        public boolean isAckedBy(SyncCodec.PayloadReader payload) throws ProtocolException {
+            long ackedVersion = payload.readVarint();
+            return ackedVersion == version && readOrigin(payload) == origin;
+        }
+
+        private static int readOrigin(SyncCodec.PayloadReader payload) throws ProtocolException {
+            return payload.readInt() - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "anchor=" + anchor + " v" + version + "@" + origin;
+        }
+    }
+
+    private int deviceId;
+    private long clock = 0;
+    private int anchor = 0;
+    private long version = 0;
+    private int origin = -1;
+
+    public PageSyncState(int deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /** Changes the id this device signs its turns with, e.g. when the server hands out a new slot. */
+    public synchronized void setDeviceId(int deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /** Records a turn made on this device and returns the update to send. */
+    public synchronized Update localTurn(int newAnchor) {
+        clock = Math.max(clock, version) + 1;
+        anchor = newAnchor;
+        version = clock;
+        origin = deviceId;
+        return new Update(anchor, version, origin);
+    }
+
+    /** Applies an update from another device. Returns true if the position changed hands. */
+    public synchronized boolean applyRemote(Update update) {
+        clock = Math.max(clock, update.version);
+        if (!isNewer(update.version, update.origin)) {
+            return false;
+        }
+        anchor = update.anchor;
+        version = update.version;
+        origin = update.origin;
+        return true;
+    }
+
+    /** Starts over at {@code newAnchor}, e.g. for a newly opened document. Any remote update beats it. */
+    public synchronized void reset(int newAnchor) {
+        anchor = newAnchor;
+        version = 0;
+        origin = -1;
+    }
+
+    public synchronized int anchor() {
+        return anchor;
+    }
+
+    public synchronized Update current() {
+        return new Update(anchor, version, origin);
+    }
+
+    private boolean isNewer(long otherVersion, int otherOrigin) {
+        if (otherVersion != version) {
+            return otherVersion > version;
+        }
+        return otherOrigin > origin;
+    }
+}
@@ -0,0 +1,66 @@
+package com.longheethz.pdftwinpage
+
+/**
+ * Page-turn timings, measured on the main thread.
+ *
+ * Latency runs from the turn request to the page being handed to the ImageView;
+ * main-thread time only counts the work the UI thread itself did for that turn.
+ * With progressive rendering the first image of a turn may be a low-resolution
+ * preview, so time to first image is tracked separately.
+ */
+class PageTurnStats {
+
+    private var turnStartNanos = 0L
+    private var turnMainThreadNanos = 0L
+    private var turnOpen = false
+    private var turnFirstImageNanos = -1L
+
+    var turns = 0
+        private set
+    private var totalLatencyNanos = 0L
+    private var maxLatencyNanos = 0L
+    private var totalMainThreadNanos = 0L
+    private var maxMainThreadNanos = 0L
+    private var totalFirstImageNanos = 0L
+    private var maxFirstImageNanos = 0L
+
+    fun beginTurn() {
+        turnStartNanos = System.nanoTime()
+        turnMainThreadNanos = 0
+        turnOpen = true
+        turnFirstImageNanos = -1
+    }
+
+    fun markFirstImage() {
+        if (!turnOpen || turnFirstImageNanos >= 0) return
+        turnFirstImageNanos = System.nanoTime() - turnStartNanos
+    }
+
+    fun addMainThreadTime(nanos: Long) {
+        turnMainThreadNanos += nanos
+    }
+
+    fun endTurn() {
+        if (!turnOpen) return
+        markFirstImage()
+        turnOpen = false
+
+        val latency = System.nanoTime() - turnStartNanos
+        turns++
+        totalLatencyNanos += latency
+        maxLatencyNanos = maxOf(maxLatencyNanos, latency)
+        totalMainThreadNanos += turnMainThreadNanos
+        maxMainThreadNanos = maxOf(maxMainThreadNanos, turnMainThreadNanos)
+        totalFirstImageNanos += turnFirstImageNanos
+        maxFirstImageNanos = maxOf(maxFirstImageNanos, turnFirstImageNanos)
+    }
+
+    fun summary(): String {
+        if (turns == 0) return "no page turns yet"
+        return "turns=$turns first image avg=${millis(totalFirstImageNanos / turns)}ms max=${millis(maxFirstImageNanos)}ms " +
+                "latency avg=${millis(totalLatencyNanos / turns)}ms max=${millis(maxLatencyNanos)}ms " +
+                "main thread avg=${millis(totalMainThreadNanos / turns)}ms max=${millis(maxMainThreadNanos)}ms"
+    }
+
+    private fun millis(nanos: Long): String = String.format("%.1f", nanos / 1_000_000.0)
+}
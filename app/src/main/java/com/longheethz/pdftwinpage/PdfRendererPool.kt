@@ -0,0 +1,103 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.pdf.PdfRenderer
+import android.os.ParcelFileDescriptor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Up to [maxRenderers] independent PdfRenderers over the same document.
+ *
+ * A PdfRenderer can only have one page open at a time and is not thread-safe, so
+ * each instance is confined to whichever thread has it checked out through
+ * [withRenderer]. Every instance gets its own file descriptor from [opener].
+ * The first renderer is opened by the constructor; the rest are opened on demand.
+ */
+class PdfRendererPool(
+    private val opener: () -> ParcelFileDescriptor,
+    private val maxRenderers: Int
+) {
+
+    private val idle = LinkedBlockingQueue<PdfRenderer>()
+    private val lock = Any()
+    private var created = 0
+    @Volatile private var closed = false
+
+    val pageCount: Int
+
+    init {
+        val first = openRenderer()
+        pageCount = first.pageCount
+        created = 1
+        idle.add(first)
+    }
+
+    /**
+     * Runs [block] with a renderer nobody else is using, waiting for one if all are busy.
+     * Throws IllegalStateException once the pool is closed.
+     */
+    fun <T> withRenderer(block: (PdfRenderer) -> T): T {
+        val renderer = checkOut()
+        try {
+            return block(renderer)
+        } finally {
+            checkIn(renderer)
+        }
+    }
+
+    /** Closes idle renderers now and busy ones as soon as they are checked back in. */
+    fun close() {
+        synchronized(lock) {
+            closed = true
+            while (true) {
+                val renderer = idle.poll() ?: break
+                renderer.close()
+            }
+        }
+    }
+
+    private fun checkOut(): PdfRenderer {
+        idle.poll()?.let { return it }
+
+        synchronized(lock) {
+            check(!closed) { "Renderer pool is closed" }
+            if (created < maxRenderers) {
+                val renderer = openRenderer()
+                created++
+                return renderer
+            }
+        }
+
+        // All renderers busy; poll so a close() while we wait doesn't leave us stuck
+        while (true) {
+            check(!closed) { "Renderer pool is closed" }
+            idle.poll(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS)?.let { return it }
+        }
+    }
+
+    private fun checkIn(renderer: PdfRenderer) {
+        synchronized(lock) {
+            if (closed) renderer.close() else idle.add(renderer)
+        }
+    }
+
+    private fun openRenderer(): PdfRenderer {
+        val fileDescriptor = opener()
+        try {
+            // The renderer takes ownership of the descriptor from here on
+            return PdfRenderer(fileDescriptor)
+        } catch (e: Exception) {
+            fileDescriptor.close()
+            throw e
+        }
+    }
+
+    companion object {
+        private const val WAIT_SLICE_MILLIS = 50L
+
+        // Leave a core for the UI thread; each extra renderer also holds its own parsed copy
+        fun defaultParallelism(): Int {
+            return (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 3)
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory {@link SyncTransport}; {@link #pair()} returns two ends wired to each other.
+ *
+ * java.io's PipedInputStream polls once a second when its writer thread dies and
+ * ties itself to the threads that used it, so this has its own bounded pipe.
+ */
+public class PipedSyncTransport implements SyncTransport {
+
+    public static final int DEFAULT_PIPE_BYTES = 64 * 1024;
+
+    private final Pipe incoming;
+    private final Pipe outgoing;
+    private final String name;
+
+    private PipedSyncTransport(Pipe incoming, Pipe outgoing, String name) {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+        this.name = name;
+    }
+
+    public static PipedSyncTransport[] pair() {
+        return pair(DEFAULT_PIPE_BYTES);
+    }
+
+    /** Two connected ends, each direction buffering up to {@code pipeBytes}. */
+    public static PipedSyncTransport[] pair(int pipeBytes) {
+        Pipe aToB = new Pipe(pipeBytes);
+        Pipe bToA = new Pipe(pipeBytes);
+        return new PipedSyncTransport[] {
+                new PipedSyncTransport(bToA, aToB, "pipe a"),
+                new PipedSyncTransport(aToB, bToA, "pipe b")
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return incoming.input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outgoing.output;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !incoming.isClosed() && !outgoing.isClosed();
+    }
+
+    @Override
+    public String describe() {
+        return name;
+    }
+
+    @Override
+    public void close() {
+        incoming.close();
+        outgoing.close();
+    }
+
+    /** Bounded ring buffer; closing it fails writers at once and readers once it's drained. */
+    private static final class Pipe {
+        private final byte[] buffer;
+        private int readPosition = 0;
+        private int size = 0;
+        private boolean closed = false;
+
+        final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                return Pipe.this.read(target, offset, length);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Pipe.this) {
+                    return size;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] source, int offset, int length) throws IOException {
+                Pipe.this.write(source, offset, length);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        synchronized int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (size == 0) {
+                if (closed) {
+                    return -1;
+                }
+                waitInterruptibly();
+            }
+
+            int count = Math.min(length, size);
+            int first = Math.min(count, buffer.length - readPosition);
+            System.arraycopy(buffer, readPosition, target, offset, first);
+            System.arraycopy(buffer, 0, target, offset + first, count - first);
+            readPosition = (readPosition + count) % buffer.length;
+            size -= count;
+            notifyAll();
+            return count;
+        }
+
+        synchronized void write(byte[] source, int offset, int length) throws IOException {
+            while (length > 0) {
+                while (!closed && size == buffer.length) {
+                    waitInterruptibly();
+                }
+                if (closed) {
+                    throw new IOException("Pipe closed");
+                }
+
+                int writePosition = (readPosition + size) % buffer.length;
+                int count = Math.min(length, buffer.length - size);
+                int first = Math.min(count, buffer.length - writePosition);
+                System.arraycopy(source, offset, buffer, writePosition, first);
+                System.arraycopy(source, offset + first, buffer, 0, count - first);
+                size += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        private void waitInterruptibly() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting on pipe");
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.longheethz.pdftwinpage
+
+/**
+ * Picks which pages to render ahead of the reader.
+ *
+ * Every turn, local or from the other device, feeds two moving averages: the
+ * reading direction (+1 forward, -1 back) and the dwell time between turns.
+ * A page k steps ahead is needed with probability about p^k, with p the chance
+ * of turning forward, and k steps back about (1 - p)^k; the planner takes the
+ * most likely pages first. How many it takes depends on how many turns fit into
+ * one render, since a reader who turns faster than pages render needs more of them
+ * ready, and is capped by what [budgetBytes] can hold.
+ *
+ * Reset per document. Not thread-safe; used from the main thread.
+ */
+class PrefetchPlanner(private val budgetBytes: Long) {
+
+    // Starts out assuming the music goes forward
+    var forwardBias = INITIAL_FORWARD_BIAS
+        private set
+    var dwellNanos = -1L
+        private set
+
+    private var lastPage = -1
+    private var lastTurnNanos = 0L
+
+    fun reset() {
+        forwardBias = INITIAL_FORWARD_BIAS
+        dwellNanos = -1
+        lastPage = -1
+        lastTurnNanos = 0
+    }
+
+    /** Records that [pageIndex] is now shown, whichever device turned to it. */
+    fun onTurn(pageIndex: Int, nowNanos: Long) {
+        val previous = lastPage
+        val previousNanos = lastTurnNanos
+        lastPage = pageIndex
+        lastTurnNanos = nowNanos
+        if (previous < 0 || pageIndex == previous) return
+
+        val direction = if (pageIndex > previous) 1.0 else -1.0
+        forwardBias = forwardBias * (1 - DIRECTION_WEIGHT) + direction * DIRECTION_WEIGHT
+
+        val dwell = nowNanos - previousNanos
+        // Long pauses are breaks, not reading speed
+        if (dwell in 1..MAX_DWELL_NANOS) {
+            dwellNanos = if (dwellNanos < 0) dwell else (dwellNanos * 3 + dwell) / 4
+        }
+    }
+
+    /** Chance that the next turn goes forward. */
+    fun forwardProbability(): Double = ((1 + forwardBias) / 2).coerceIn(MIN_PROBABILITY, 1 - MIN_PROBABILITY)
+
+    /**
+     * Pages to prefetch around [pageIndex], most likely first. [step] is the page
+     * distance of one turn in the current reading mode; [renderNanos] and [pageBytes]
+     * are what one page costs here, -1 or 0 while unknown.
+     */
+    fun plan(pageIndex: Int, pageCount: Int, step: Int, renderNanos: Long, pageBytes: Long): IntArray {
+        val count = windowSize(renderNanos, pageBytes)
+        val forward = forwardProbability()
+
+        // Walks both directions at once, always taking the more likely next page
+        val pages = ArrayList<Int>(count)
+        var ahead = 1
+        var behind = 1
+        while (pages.size < count) {
+            val nextAhead = pageIndex + ahead * step
+            val nextBehind = pageIndex - behind * step
+            val aheadValid = nextAhead < pageCount
+            val behindValid = nextBehind >= 0
+            if (!aheadValid && !behindValid) break
+
+            val aheadScore = if (aheadValid) Math.pow(forward, ahead.toDouble()) else -1.0
+            val behindScore = if (behindValid) Math.pow(1 - forward, behind.toDouble()) else -1.0
+            if (aheadScore >= behindScore) {
+                pages.add(nextAhead)
+                ahead++
+            } else {
+                pages.add(nextBehind)
+                behind++
+            }
+        }
+        return pages.toIntArray()
+    }
+
+    /** How many pages to keep ready: enough to cover the turns that fit into one render, within the budget. */
+    fun windowSize(renderNanos: Long, pageBytes: Long): Int {
+        val turnsPerRender = if (renderNanos > 0 && dwellNanos > 0) {
+            ((renderNanos + dwellNanos - 1) / dwellNanos).toInt()
+        } else {
+            1
+        }
+        val wanted = (turnsPerRender + 1).coerceIn(MIN_WINDOW, MAX_WINDOW)
+        val affordable = if (pageBytes > 0) (budgetBytes / pageBytes).toInt() else MAX_WINDOW
+        return minOf(wanted, maxOf(1, affordable))
+    }
+
+    fun stats(): String {
+        return "forward=${"%.2f".format(forwardProbability())} dwell=${dwellNanos / 1_000_000}ms"
+    }
+
+    companion object {
+        private const val INITIAL_FORWARD_BIAS = 0.6
+        private const val DIRECTION_WEIGHT = 0.3
+        // Even a reader who only goes forward sometimes repeats a section
+        private const val MIN_PROBABILITY = 0.05
+        private const val MAX_DWELL_NANOS = 120_000_000_000L
+        private const val MIN_WINDOW = 2
+        private const val MAX_WINDOW = 8
+    }
+}
@@ -0,0 +1,316 @@
+package com.longheethz.pdftwinpage
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Build
+import android.util.Size
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Thin-client rendering: lets a slow device have its pages rendered by the other one.
+ *
+ * Both devices tell each other their page view size and average render time
+ * (PEER_INFO). A device in thin-client mode asks for the pages it is about to show
+ * (PAGE_REQUEST, most urgent first) and the other device renders them at our view
+ * size, compresses them to WebP (JPEG before Android 11) and streams them back as
+ * PAGE_IMAGE frames on the writer's bulk lane, so page turns are never stuck behind
+ * an image. Received pages are decoded into pooled bitmaps and go straight into the
+ * page cache, where the normal render path finds them. Encoding and decoding both
+ * run on the [PageRenderWorker]'s threads; there are no threads of our own.
+ *
+ * [RemoteRenderPlanner] decides per page whether asking is actually faster than
+ * rendering here, from measured render, encode, decode and link times.
+ */
+class RemotePageRenderer(
+    private val renderWorker: PageRenderWorker,
+    private val bitmapPool: BitmapPool,
+    private val encoder: SyncCodec.Encoder,
+    private val listener: Listener
+) {
+
+    interface Listener {
+        /** A page rendered by the other device is now in the cache. Called on a background thread. */
+        fun onRemotePage(pageIndex: Int)
+    }
+
+    private class ImageBuffer : ByteArrayOutputStream(256 * 1024) {
+        fun data(): ByteArray = buf
+    }
+
+    private val lock = Object()
+
+    // Guarded by lock
+    private var connection: SyncConnection? = null
+    private val planner = RemoteRenderPlanner()
+    private var peerKnown = false
+    private var nextRequestId = 1L
+    private var requestId = 0L
+    private var requestSentNanos = 0L
+    private var requestDocumentId: String? = null
+    private var sampledRequestId = 0L
+    // Last PEER_INFO we sent, re-sent on attach
+    private var infoWidth = 0
+    private var infoHeight = 0
+    private var infoRenderNanos = 0L
+
+    // Serving the other device; written on the reader thread
+    @Volatile private var peerViewWidth = 0
+    @Volatile private var peerViewHeight = 0
+    @Volatile private var servingRequestId = 0L
+
+    fun attach(link: SyncConnection) {
+        synchronized(lock) {
+            connection = link
+            if (infoWidth > 0) sendInfoLocked()
+        }
+    }
+
+    fun detach() {
+        synchronized(lock) {
+            connection = null
+            peerKnown = false
+            requestId = 0
+        }
+        servingRequestId = 0
+    }
+
+    /**
+     * Tells the other device our view size and render time. Only sent when the size
+     * changed or the render time moved by more than a quarter.
+     */
+    fun sendInfo(viewWidth: Int, viewHeight: Int, averageRenderNanos: Long) {
+        if (viewWidth <= 0 || viewHeight <= 0) return
+        val renderNanos = maxOf(averageRenderNanos, 0L)
+        synchronized(lock) {
+            if (viewWidth == infoWidth && viewHeight == infoHeight &&
+                Math.abs(renderNanos - infoRenderNanos) * 4 <= infoRenderNanos
+            ) {
+                return
+            }
+            infoWidth = viewWidth
+            infoHeight = viewHeight
+            infoRenderNanos = renderNanos
+            sendInfoLocked()
+        }
+    }
+
+    /** Whether the next page should come from the other device, given our own render time (-1 while unknown). */
+    fun shouldRenderRemotely(localRenderNanos: Long): Boolean {
+        synchronized(lock) {
+            return connection != null && peerKnown && planner.useRemote(localRenderNanos)
+        }
+    }
+
+    /** Asks the other device for [pageIndices], most urgent first, replacing any earlier request. */
+    fun request(pageIndices: IntArray, pageCount: Int) {
+        synchronized(lock) {
+            val link = connection ?: return
+            requestId = nextRequestId++
+            requestSentNanos = System.nanoTime()
+            requestDocumentId = renderWorker.documentId
+
+            val values = LongArray(3 + pageIndices.size)
+            values[0] = requestId
+            values[1] = pageCount.toLong()
+            values[2] = pageIndices.size.toLong()
+            pageIndices.forEachIndexed { i, page -> values[3 + i] = page.toLong() }
+            link.send(encoder.encodeVarints(SyncCodec.TYPE_PAGE_REQUEST, *values), SyncCodec.TYPE_PAGE_REQUEST)
+        }
+    }
+
+    fun timeoutNanos(localRenderNanos: Long): Long = synchronized(lock) { planner.timeoutNanos(localRenderNanos) }
+
+    /** A requested page didn't arrive in time and was rendered here instead. */
+    fun onTimeout() {
+        synchronized(lock) {
+            planner.onTimeout()
+            println("DEBUG: Remote page timed out, rendering locally (${planner.stats()})")
+        }
+    }
+
+    fun stats(): String = synchronized(lock) { planner.stats() }
+
+    /** Handles a PEER_INFO / PAGE_* frame on the reader thread. Returns false for any other type. */
+    fun handleFrame(type: Int, payload: SyncCodec.PayloadReader): Boolean {
+        when (type) {
+            SyncCodec.TYPE_PEER_INFO -> onPeerInfo(payload.readInt(), payload.readInt(), payload.readVarint())
+            SyncCodec.TYPE_PAGE_REQUEST -> onPageRequest(payload)
+            SyncCodec.TYPE_PAGE_IMAGE -> onPageImage(payload)
+            else -> return false
+        }
+        return true
+    }
+
+    fun close() {
+        detach()
+    }
+
+    // Must hold lock
+    private fun sendInfoLocked() {
+        val link = connection ?: return
+        link.send(
+            encoder.encodeVarints(SyncCodec.TYPE_PEER_INFO, infoWidth.toLong(), infoHeight.toLong(), infoRenderNanos),
+            SyncCodec.TYPE_PEER_INFO
+        )
+    }
+
+    private fun onPeerInfo(viewWidth: Int, viewHeight: Int, averageRenderNanos: Long) {
+        peerViewWidth = viewWidth
+        peerViewHeight = viewHeight
+        synchronized(lock) {
+            peerKnown = true
+            planner.onPeerInfo(averageRenderNanos)
+        }
+        println("DEBUG: Other device's view is ${viewWidth}x$viewHeight, renders in ${averageRenderNanos / 1_000_000}ms")
+    }
+
+    // Serving side
+
+    private fun onPageRequest(payload: SyncCodec.PayloadReader) {
+        val id = payload.readVarint()
+        val pageCount = payload.readInt()
+        val count = payload.readInt()
+        if (count < 0 || count > payload.remaining()) return
+        val pages = IntArray(count) { payload.readInt() }
+
+        // Not the document we have open, or we don't know the view to render for
+        if (pageCount != renderWorker.pageCount || peerViewWidth <= 0 || peerViewHeight <= 0) {
+            println("DEBUG: Can't render pages for the other device (pages=$pageCount, view=${peerViewWidth}x$peerViewHeight)")
+            return
+        }
+
+        servingRequestId = id
+        renderWorker.renderForPeer(pages, peerViewWidth, peerViewHeight, { id == servingRequestId }) { pageIndex, pageSize, bitmap, renderNanos ->
+            encodeAndSend(id, pageIndex, pageSize, bitmap, renderNanos)
+        }
+    }
+
+    // Runs on the render thread right after the render, so the most urgent page goes out
+    // first; only the wait for room on the link is handed to SyncIo
+    private fun encodeAndSend(id: Long, pageIndex: Int, pageSize: Size, bitmap: Bitmap, renderNanos: Long) {
+        val frame: ByteArray
+        try {
+            // The reader already moved on to other pages
+            if (id != servingRequestId) return
+            val start = System.nanoTime()
+            val imageBuffer = imageBuffers.get()!!
+            val imagePayload = imagePayloads.get()!!
+            imageBuffer.reset()
+            bitmap.compress(IMAGE_FORMAT, IMAGE_QUALITY, imageBuffer)
+
+            imagePayload.reset()
+            imagePayload.writeVarint(id)
+            imagePayload.writeVarint(pageIndex.toLong())
+            imagePayload.writeVarint(pageSize.width.toLong())
+            imagePayload.writeVarint(pageSize.height.toLong())
+            imagePayload.writeVarint(bitmap.width.toLong())
+            imagePayload.writeVarint(bitmap.height.toLong())
+            imagePayload.writeVarint(renderNanos + System.nanoTime() - start)
+            imagePayload.writeBytes(imageBuffer.data(), 0, imageBuffer.size())
+            frame = encoder.encode(SyncCodec.TYPE_PAGE_IMAGE, imagePayload)
+        } finally {
+            bitmapPool.release(bitmap)
+        }
+
+        val link = synchronized(lock) { connection } ?: return
+        SyncIo.run("RemotePageSender") {
+            try {
+                link.sendBlocking(frame)
+            } catch (e: InterruptedException) {
+                // Shutting down
+            }
+        }
+    }
+
+    // Requesting side
+
+    private fun onPageImage(payload: SyncCodec.PayloadReader) {
+        val receivedNanos = System.nanoTime()
+        val id = payload.readVarint()
+        val pageIndex = payload.readInt()
+        val pageWidth = payload.readInt()
+        val pageHeight = payload.readInt()
+        val width = payload.readInt()
+        val height = payload.readInt()
+        val serverNanos = payload.readVarint()
+        if (width <= 0 || height <= 0 || width.toLong() * height > MAX_IMAGE_PIXELS) return
+
+        // The payload is only valid during this call
+        val image = ByteArray(payload.remaining())
+        payload.readBytes(image, 0, image.size)
+
+        val documentId: String
+        val roundTripNanos: Long
+        synchronized(lock) {
+            documentId = requestDocumentId ?: return
+            // Only the first page of a request waited on nothing but itself
+            roundTripNanos = if (id == requestId && id != sampledRequestId) {
+                sampledRequestId = id
+                receivedNanos - requestSentNanos
+            } else {
+                -1
+            }
+        }
+
+        try {
+            renderWorker.runForReader { decode(documentId, pageIndex, pageWidth, pageHeight, width, height, image, roundTripNanos, serverNanos) }
+        } catch (e: RejectedExecutionException) {
+            // Closed
+        }
+    }
+
+    private fun decode(
+        documentId: String, pageIndex: Int, pageWidth: Int, pageHeight: Int,
+        width: Int, height: Int, image: ByteArray, roundTripNanos: Long, serverNanos: Long
+    ) {
+        val start = System.nanoTime()
+        val target = bitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888, android.graphics.Color.WHITE)
+        val options = BitmapFactory.Options().apply {
+            inMutable = true
+            inBitmap = target
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+        }
+
+        val bitmap = try {
+            BitmapFactory.decodeByteArray(image, 0, image.size, options)
+        } catch (e: IllegalArgumentException) {
+            null // Image didn't fit the pooled bitmap
+        }
+        if (bitmap == null || bitmap.width != width || bitmap.height != height) {
+            println("DEBUG: Couldn't decode remote page $pageIndex")
+            bitmapPool.release(target)
+            return
+        }
+        val decodeNanos = System.nanoTime() - start
+
+        if (roundTripNanos > 0) {
+            synchronized(lock) {
+                planner.onImage(image.size, roundTripNanos, serverNanos, decodeNanos)
+                println("DEBUG: Remote page $pageIndex: ${image.size / 1024}KB in ${roundTripNanos / 1_000_000}ms (${planner.stats()})")
+            }
+        }
+
+        if (renderWorker.adoptRemotePage(documentId, pageIndex, pageWidth, pageHeight, bitmap)) {
+            listener.onRemotePage(pageIndex)
+        }
+    }
+
+    companion object {
+        @Suppress("DEPRECATION")
+        private val IMAGE_FORMAT = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Bitmap.CompressFormat.WEBP_LOSSY
+        } else {
+            Bitmap.CompressFormat.JPEG
+        }
+        // Text and notes stay sharp; lower starts to smear thin staff lines
+        private const val IMAGE_QUALITY = 80
+
+        // Twice what RenderTargetCalculator ever asks for
+        private const val MAX_IMAGE_PIXELS = 2 * RenderTargetCalculator.DEFAULT_MAX_PIXELS
+
+        // One per render thread, shared by every link
+        private val imageBuffers = ThreadLocal.withInitial { ImageBuffer() }
+        private val imagePayloads = ThreadLocal.withInitial { SyncCodec.PayloadWriter() }
+    }
+}
@@ -0,0 +1,118 @@
+package com.longheethz.pdftwinpage
+
+/**
+ * Decides whether a page should be rendered here or by the other device.
+ *
+ * A remote page costs the peer's render and encode time, the image's time on the
+ * link and our decode time; all of them are measured as pages come in. Remote wins
+ * when that is clearly less than our own average render time. Until a remote page
+ * has been measured, remote is only tried when the peer reports renders at least
+ * [PROBE_SPEEDUP] times faster than ours, so a fast device never waits on the link.
+ * After [MAX_TIMEOUTS] misses in a row remote stays off for [REPROBE_NANOS], then the
+ * link counts as unmeasured again and gets probed like a new one.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+class RemoteRenderPlanner {
+
+    // Moving averages, -1 until the first sample
+    var peerRenderNanos = -1L
+        private set
+    var imageBytes = -1L
+        private set
+    var bytesPerSecond = -1L
+        private set
+    var decodeNanos = -1L
+        private set
+
+    private var usingRemote = false
+    private var timeouts = 0
+    private var backedOffNanos = 0L
+
+    /** The render time the peer advertises, used until its own page timings arrive. */
+    fun onPeerInfo(averageRenderNanos: Long) {
+        if (averageRenderNanos > 0 && imageBytes < 0) peerRenderNanos = averageRenderNanos
+    }
+
+    /**
+     * A remote page arrived [roundTripNanos] after it was requested, of which the peer
+     * spent [serverNanos] rendering and encoding it.
+     */
+    fun onImage(bytes: Int, roundTripNanos: Long, serverNanos: Long, decodeNanos: Long) {
+        timeouts = 0
+        peerRenderNanos = average(peerRenderNanos, serverNanos)
+        imageBytes = average(imageBytes, bytes.toLong())
+        this.decodeNanos = average(this.decodeNanos, decodeNanos)
+
+        val linkNanos = roundTripNanos - serverNanos
+        if (linkNanos > 0) {
+            bytesPerSecond = average(bytesPerSecond, bytes * 1_000_000_000L / linkNanos)
+        }
+    }
+
+    /** A requested page didn't arrive in time; back off to local renders. */
+    fun onTimeout(nowNanos: Long = System.nanoTime()) {
+        timeouts++
+        usingRemote = false
+        if (timeouts == MAX_TIMEOUTS) backedOffNanos = nowNanos
+        // The link is worse than measured; halve what we think it can do
+        if (bytesPerSecond > 0) bytesPerSecond /= 2
+    }
+
+    /** Expected time from request to decoded remote page, or -1 while unknown. */
+    fun remoteEstimateNanos(): Long {
+        if (peerRenderNanos < 0 || imageBytes < 0 || bytesPerSecond <= 0) return -1
+        return peerRenderNanos + imageBytes * 1_000_000_000L / bytesPerSecond + maxOf(decodeNanos, 0L)
+    }
+
+    /** Whether the next page should come from the peer, given our own [localRenderNanos] (-1 while unknown). */
+    fun useRemote(localRenderNanos: Long, nowNanos: Long = System.nanoTime()): Boolean {
+        // Nothing is asked for while backed off, so nothing would ever turn it back on
+        if (timeouts >= MAX_TIMEOUTS && nowNanos - backedOffNanos >= REPROBE_NANOS) {
+            timeouts = MAX_TIMEOUTS - 1 // One more miss backs off again
+            bytesPerSecond = -1
+        }
+        // Nothing to compare against until we've rendered a page ourselves
+        if (localRenderNanos < 0 || peerRenderNanos < 0 || timeouts >= MAX_TIMEOUTS) {
+            usingRemote = false
+            return false
+        }
+
+        val estimate = remoteEstimateNanos()
+        usingRemote = if (estimate < 0) {
+            peerRenderNanos * PROBE_SPEEDUP < localRenderNanos
+        } else {
+            // Some hysteresis, so similar costs don't flip the choice on every page
+            val margin = if (usingRemote) STAY_MARGIN else SWITCH_MARGIN
+            estimate < localRenderNanos * margin
+        }
+        return usingRemote
+    }
+
+    /** How long to wait for a remote page before rendering it here after all. */
+    fun timeoutNanos(localRenderNanos: Long): Long {
+        val estimate = remoteEstimateNanos()
+        val expected = if (estimate > 0) 2 * estimate else localRenderNanos
+        return maxOf(MIN_TIMEOUT_NANOS, expected)
+    }
+
+    fun stats(): String {
+        return "remote=$usingRemote peerRender=${peerRenderNanos / 1_000_000}ms image=${imageBytes / 1024}KB " +
+                "link=${bytesPerSecond / 1024}KB/s decode=${decodeNanos / 1_000_000}ms " +
+                "estimate=${remoteEstimateNanos() / 1_000_000}ms timeouts=$timeouts"
+    }
+
+    private fun average(current: Long, sample: Long): Long {
+        return if (current < 0) sample else (current * 3 + sample) / 4
+    }
+
+    companion object {
+        const val PROBE_SPEEDUP = 2
+        const val REPROBE_NANOS = 30_000_000_000L
+        private const val SWITCH_MARGIN = 0.8
+        private const val STAY_MARGIN = 1.0
+        private const val MIN_TIMEOUT_NANOS = 300_000_000L
+        // After this many misses in a row remote rendering stays off for REPROBE_NANOS
+        const val MAX_TIMEOUTS = 3
+    }
+}
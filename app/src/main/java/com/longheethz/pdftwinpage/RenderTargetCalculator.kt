@@ -0,0 +1,54 @@
+package com.longheethz.pdftwinpage
+
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Picks the bitmap size a page is rendered at.
+ *
+ * The page is fitted inside the view (the ImageView uses fitCenter), scaled by
+ * [qualityFactor] and then shrunk, keeping its aspect ratio, until it stays under
+ * [maxPixels]. Before the view has been measured the old 2x page size is used.
+ */
+class RenderTargetCalculator(
+    private val qualityFactor: Float = DEFAULT_QUALITY_FACTOR,
+    private val maxPixels: Long = DEFAULT_MAX_PIXELS
+) {
+
+    data class Target(val width: Int, val height: Int)
+
+    fun targetFor(pageWidth: Int, pageHeight: Int, viewWidth: Int, viewHeight: Int): Target {
+        if (pageWidth <= 0 || pageHeight <= 0) return Target(1, 1)
+
+        val scale = if (viewWidth > 0 && viewHeight > 0) {
+            min(viewWidth.toDouble() / pageWidth, viewHeight.toDouble() / pageHeight) * qualityFactor
+        } else {
+            UNMEASURED_SCALE
+        }
+
+        var width = pageWidth * scale
+        var height = pageHeight * scale
+
+        val pixels = width * height
+        if (pixels > maxPixels) {
+            val shrink = sqrt(maxPixels / pixels)
+            // Floor here so rounding can't push us back over the budget
+            width = floor(width * shrink)
+            height = floor(height * shrink)
+        }
+
+        return Target(max(1, width.roundToInt()), max(1, height.roundToInt()))
+    }
+
+    companion object {
+        const val DEFAULT_QUALITY_FACTOR = 1.0f
+
+        // About 16 MB as ARGB_8888; an A4 page at the old fixed 2x is ~2 MP
+        const val DEFAULT_MAX_PIXELS = 4_000_000L
+
+        private const val UNMEASURED_SCALE = 2.0
+    }
+}
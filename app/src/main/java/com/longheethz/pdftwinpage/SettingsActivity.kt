@@ -3,6 +3,7 @@ package com.longheethz.pdftwinpage
 import android.content.SharedPreferences
 import android.os.Bundle
 import android.widget.Button
+import android.widget.CheckBox
 import android.widget.RadioButton
 import android.widget.RadioGroup
 import android.widget.Toast
@@ -13,6 +14,13 @@ class SettingsActivity : AppCompatActivity() {
     private lateinit var readingModeGroup: RadioGroup
     private lateinit var modeOddEven: RadioButton
     private lateinit var modeSequential: RadioButton
+    private lateinit var renderFormatGroup: RadioGroup
+    private lateinit var formatColor: RadioButton
+    private lateinit var formatRgb565: RadioButton
+    private lateinit var formatGrayscale: RadioButton
+    private lateinit var syncFlipCheck: CheckBox
+    private lateinit var remoteRenderCheck: CheckBox
+    private lateinit var autoConnectCheck: CheckBox
     private lateinit var saveButton: Button
     private lateinit var sharedPreferences: SharedPreferences
 
@@ -21,6 +29,13 @@ class SettingsActivity : AppCompatActivity() {
         const val READING_MODE_KEY = "reading_mode"
         const val MODE_ODD_EVEN = "odd_even"
         const val MODE_SEQUENTIAL = "sequential"
+        const val RENDER_FORMAT_KEY = "render_format"
+        const val FORMAT_COLOR = "color"
+        const val FORMAT_RGB_565 = "rgb_565"
+        const val FORMAT_GRAYSCALE = "grayscale"
+        const val SYNC_FLIP_KEY = "sync_flip"
+        const val REMOTE_RENDER_KEY = "remote_render"
+        const val AUTO_CONNECT_KEY = "auto_connect"
     }
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -37,6 +52,13 @@ class SettingsActivity : AppCompatActivity() {
         readingModeGroup = findViewById(R.id.readingModeGroup)
         modeOddEven = findViewById(R.id.modeOddEven)
         modeSequential = findViewById(R.id.modeSequential)
+        renderFormatGroup = findViewById(R.id.renderFormatGroup)
+        formatColor = findViewById(R.id.formatColor)
+        formatRgb565 = findViewById(R.id.formatRgb565)
+        formatGrayscale = findViewById(R.id.formatGrayscale)
+        syncFlipCheck = findViewById(R.id.syncFlipCheck)
+        remoteRenderCheck = findViewById(R.id.remoteRenderCheck)
+        autoConnectCheck = findViewById(R.id.autoConnectCheck)
         saveButton = findViewById(R.id.saveButton)
     }
 
@@ -50,6 +72,17 @@ class SettingsActivity : AppCompatActivity() {
             MODE_ODD_EVEN -> modeOddEven.isChecked = true
             MODE_SEQUENTIAL -> modeSequential.isChecked = true
         }
+
+        val currentFormat = sharedPreferences.getString(RENDER_FORMAT_KEY, FORMAT_COLOR)
+        when (currentFormat) {
+            FORMAT_COLOR -> formatColor.isChecked = true
+            FORMAT_RGB_565 -> formatRgb565.isChecked = true
+            FORMAT_GRAYSCALE -> formatGrayscale.isChecked = true
+        }
+
+        syncFlipCheck.isChecked = sharedPreferences.getBoolean(SYNC_FLIP_KEY, false)
+        remoteRenderCheck.isChecked = sharedPreferences.getBoolean(REMOTE_RENDER_KEY, false)
+        autoConnectCheck.isChecked = sharedPreferences.getBoolean(AUTO_CONNECT_KEY, true)
     }
 
     private fun setupListeners() {
@@ -65,8 +98,19 @@ class SettingsActivity : AppCompatActivity() {
             else -> MODE_ODD_EVEN
         }
 
+        val selectedFormat = when (renderFormatGroup.checkedRadioButtonId) {
+            R.id.formatColor -> FORMAT_COLOR
+            R.id.formatRgb565 -> FORMAT_RGB_565
+            R.id.formatGrayscale -> FORMAT_GRAYSCALE
+            else -> FORMAT_COLOR
+        }
+
         sharedPreferences.edit()
             .putString(READING_MODE_KEY, selectedMode)
+            .putString(RENDER_FORMAT_KEY, selectedFormat)
+            .putBoolean(SYNC_FLIP_KEY, syncFlipCheck.isChecked)
+            .putBoolean(REMOTE_RENDER_KEY, remoteRenderCheck.isChecked)
+            .putBoolean(AUTO_CONNECT_KEY, autoConnectCheck.isChecked)
             .apply()
 
         Toast.makeText(this, "Settings saved!", Toast.LENGTH_SHORT).show()
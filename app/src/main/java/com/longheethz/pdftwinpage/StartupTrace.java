@@ -0,0 +1,48 @@
+package com.longheethz.pdftwinpage;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Cold start to connected, as one log line of milestones measured from the moment
+ * the process started. The whole span also shows up as an async "startup" section
+ * in system traces on Android 10 and up.
+ */
+final class StartupTrace {
+
+    private static final String SECTION = "startup";
+
+    private static final StringBuilder marks = new StringBuilder();
+    private static boolean finished = false;
+    private static boolean sectionOpen = false;
+
+    private StartupTrace() {}
+
+    /** Records a milestone; ignored once the trace is finished. */
+    static synchronized void mark(String event) {
+        if (finished) {
+            return;
+        }
+        if (!sectionOpen && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(SECTION, 0);
+            sectionOpen = true;
+        }
+        long sinceStart = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        marks.append(' ').append(event).append('=').append(sinceStart).append("ms");
+    }
+
+    /** Records the last milestone and logs the trace, once per process. */
+    static synchronized void finish(String event) {
+        if (finished) {
+            return;
+        }
+        mark(event);
+        finished = true;
+        if (sectionOpen && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(SECTION, 0);
+        }
+        System.out.println("DEBUG: Startup trace:" + marks);
+    }
+}
@@ -0,0 +1,369 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing for the sync messages exchanged between the two devices.
+ *
+ * RFCOMM is a byte stream and does not keep message boundaries, so every message
+ * is sent as a frame:
+ *
+ * <pre>
+ *   magic (1) | version (1) | type (1) | sequence (varint) | length (varint) | payload
+ * </pre>
+ *
+ * Payload fields are varints or length-prefixed UTF-8 strings, read through
+ * {@link PayloadReader}. The decoder keeps one receive buffer for the life of the
+ * connection and hands out views into it, so decoding a frame allocates nothing.
+ */
+public final class SyncCodec {
+
+    public static final int MAGIC = 0xA5;
+    public static final int VERSION = 1;
+
+    public static final int TYPE_PAGE_CHANGE = 1;
+    public static final int TYPE_PDF_LOADED = 2;
+    public static final int TYPE_MODE_CHANGE = 3;
+    public static final int TYPE_TIME_REQUEST = 4;
+    public static final int TYPE_TIME_RESPONSE = 5;
+    public static final int TYPE_FLIP_DONE = 6;
+    public static final int TYPE_DOC_OFFER = 7;
+    public static final int TYPE_DOC_NEED = 8;
+    public static final int TYPE_DOC_CHUNK = 9;
+    public static final int TYPE_DOC_ACK = 10;
+    public static final int TYPE_DOC_COMPLETE = 11;
+    public static final int TYPE_DOC_HASHES_REQUEST = 12;
+    public static final int TYPE_DOC_BLOCK_HASHES = 13;
+    public static final int TYPE_PEER_INFO = 14;
+    public static final int TYPE_PAGE_REQUEST = 15;
+    public static final int TYPE_PAGE_IMAGE = 16;
+    public static final int TYPE_SLOT = 17;
+    public static final int TYPE_PAGE_ACK = 18;
+    public static final int TYPE_PING = 19;
+    public static final int TYPE_PONG = 20;
+    public static final int TYPE_HELLO = 21;
+    public static final int TYPE_HELLO_KEEP = 22;
+
+    // Bigger frames mean a corrupt stream or a peer speaking something else
+    public static final int MAX_PAYLOAD_BYTES = 4 * 1024 * 1024;
+
+    private SyncCodec() {}
+
+    /** Receives decoded frames. The payload view is only valid during the call. */
+    public interface FrameListener {
+        void onFrame(int type, long sequence, PayloadReader payload) throws IOException;
+    }
+
+    /**
+     * Builds frames with increasing sequence numbers. Thread-safe; the returned
+     * array is owned by the caller.
+     */
+    public static final class Encoder {
+        private long nextSequence = 0;
+        private final PayloadWriter payload = new PayloadWriter();
+
+        public synchronized byte[] encodeVarints(int type, long... values) {
+            payload.reset();
+            for (long value : values) {
+                payload.writeVarint(value);
+            }
+            return frame(type, payload.bytes(), 0, payload.length());
+        }
+
+        public synchronized byte[] encodeString(int type, String value) {
+            payload.reset();
+            payload.writeString(value);
+            return frame(type, payload.bytes(), 0, payload.length());
+        }
+
+        /** Frames a payload the caller built, for messages mixing field kinds. */
+        public synchronized byte[] encode(int type, PayloadWriter built) {
+            return frame(type, built.bytes(), 0, built.length());
+        }
+
+        public synchronized byte[] encode(int type, byte[] data, int offset, int length) {
+            return frame(type, data, offset, length);
+        }
+
+        private byte[] frame(int type, byte[] data, int offset, int length) {
+            long sequence = nextSequence++;
+            int headerLength = 3 + varintSize(sequence) + varintSize(length);
+            byte[] frame = new byte[headerLength + length];
+
+            frame[0] = (byte) MAGIC;
+            frame[1] = (byte) VERSION;
+            frame[2] = (byte) type;
+            int position = writeVarint(frame, 3, sequence);
+            position = writeVarint(frame, position, length);
+            System.arraycopy(data, offset, frame, position, length);
+            return frame;
+        }
+    }
+
+    /**
+     * Reassembles frames from arbitrarily split or merged reads. Not thread-safe;
+     * meant to be owned by the single reader of a connection.
+     */
+    public static final class Decoder {
+        private byte[] buffer;
+        private int start = 0; // First unconsumed byte
+        private int end = 0;   // One past the last received byte
+        private final PayloadReader reader = new PayloadReader();
+
+        public Decoder() {
+            this(4096);
+        }
+
+        public Decoder(int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+        /**
+         * Blocks for one read from {@code input} straight into the receive buffer and
+         * dispatches every complete frame. Returns false at end of stream.
+         */
+        public boolean readFrom(InputStream input, FrameListener listener) throws IOException {
+            makeRoom(1);
+            int read = input.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                return false;
+            }
+            end += read;
+            drain(listener);
+            return true;
+        }
+
+        /** Appends already received bytes and dispatches every complete frame. */
+        public void feed(byte[] data, int offset, int length, FrameListener listener) throws IOException {
+            makeRoom(length);
+            System.arraycopy(data, offset, buffer, end, length);
+            end += length;
+            drain(listener);
+        }
+
+        private void drain(FrameListener listener) throws IOException {
+            while (true) {
+                int available = end - start;
+                if (available < 3) {
+                    return;
+                }
+                if ((buffer[start] & 0xFF) != MAGIC) {
+                    throw new ProtocolException("Bad frame magic; peer may run an older version");
+                }
+                if ((buffer[start + 1] & 0xFF) != VERSION) {
+                    throw new ProtocolException("Unsupported protocol version " + (buffer[start + 1] & 0xFF));
+                }
+                int type = buffer[start + 2] & 0xFF;
+
+                reader.reset(buffer, start + 3, end);
+                long sequence = reader.tryReadVarint();
+                if (sequence < 0) {
+                    return;
+                }
+                long length = reader.tryReadVarint();
+                if (length < 0) {
+                    return;
+                }
+                if (length > MAX_PAYLOAD_BYTES) {
+                    throw new ProtocolException("Frame too large: " + length + " bytes");
+                }
+
+                int payloadStart = reader.position();
+                if (end - payloadStart < length) {
+                    // Make sure the rest of this frame will fit without another compaction
+                    ensureCapacity(payloadStart - start + (int) length);
+                    return;
+                }
+
+                int payloadEnd = payloadStart + (int) length;
+                start = payloadEnd;
+                reader.reset(buffer, payloadStart, payloadEnd);
+                listener.onFrame(type, sequence, reader);
+            }
+        }
+
+        private void makeRoom(int needed) {
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+            if (buffer.length - end >= needed) {
+                return;
+            }
+            // Slide the partial frame to the front before growing
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (buffer.length - end < needed) {
+                grow(end + needed);
+            }
+        }
+
+        private void ensureCapacity(int frameLength) {
+            if (frameLength > buffer.length) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                grow(frameLength);
+            }
+        }
+
+        private void grow(int minimum) {
+            byte[] larger = new byte[Math.max(minimum, buffer.length * 2)];
+            System.arraycopy(buffer, start, larger, 0, end - start);
+            end -= start;
+            start = 0;
+            buffer = larger;
+        }
+    }
+
+    /** Sequential view over one frame's payload. */
+    public static final class PayloadReader {
+        private byte[] data;
+        private int position;
+        private int limit;
+
+        PayloadReader() {}
+
+        public PayloadReader(byte[] data, int offset, int length) {
+            reset(data, offset, offset + length);
+        }
+
+        void reset(byte[] data, int position, int limit) {
+            this.data = data;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int position() {
+            return position;
+        }
+
+        public int remaining() {
+            return limit - position;
+        }
+
+        public long readVarint() throws ProtocolException {
+            long value = tryReadVarint();
+            if (value < 0) {
+                throw new ProtocolException("Truncated varint");
+            }
+            return value;
+        }
+
+        public int readInt() throws ProtocolException {
+            return (int) readVarint();
+        }
+
+        public String readString() throws ProtocolException {
+            int length = readInt();
+            if (length > remaining()) {
+                throw new ProtocolException("Truncated string");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /** Copies the next {@code length} bytes out of the frame. */
+        public void readBytes(byte[] target, int offset, int length) throws ProtocolException {
+            if (length > remaining()) {
+                throw new ProtocolException("Truncated bytes");
+            }
+            System.arraycopy(data, position, target, offset, length);
+            position += length;
+        }
+
+        // Returns -1 instead of throwing when the varint isn't complete yet. One that runs
+        // past ten bytes or doesn't fit in a long will never complete, so that throws
+        long tryReadVarint() throws ProtocolException {
+            long value = 0;
+            int shift = 0;
+            int cursor = position;
+            while (cursor < limit) {
+                int b = data[cursor++] & 0xFF;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new ProtocolException("Malformed varint");
+                    }
+                    position = cursor;
+                    return value;
+                }
+                shift += 7;
+                if (shift >= 64) {
+                    throw new ProtocolException("Malformed varint");
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Growable payload builder used by {@link Encoder}. */
+    public static final class PayloadWriter {
+        private byte[] data = new byte[64];
+        private int length = 0;
+
+        public void reset() {
+            length = 0;
+        }
+
+        public byte[] bytes() {
+            return data;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /** Varints are unsigned; a negative value would not come back, so it is refused here. */
+        public void writeVarint(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative varint " + value);
+            }
+            ensure(10);
+            length = SyncCodec.writeVarint(data, length, value);
+        }
+
+        public void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            writeBytes(utf8, 0, utf8.length);
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > data.length) {
+                byte[] larger = new byte[Math.max(length + extra, data.length * 2)];
+                System.arraycopy(data, 0, larger, 0, length);
+                data = larger;
+            }
+        }
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static int writeVarint(byte[] target, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[position++] = (byte) value;
+        return position;
+    }
+}
@@ -0,0 +1,170 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One sync link: a reader decoding frames from a {@link SyncTransport} and a
+ * {@link SyncWriter} sending them, both on the shared {@link SyncIo} pool. Nothing
+ * here knows which transport it runs on.
+ *
+ * The connection is the only thing that touches the transport's streams, from
+ * construction until it is closed, whichever screen is showing.
+ */
+public class SyncConnection {
+
+    public enum State {
+        /** Writer is live, reader not started yet; see {@link #start()}. */
+        CONNECTING,
+        /** Reading and writing. */
+        CONNECTED,
+        /** Closing: no new frames, queued ones still go out. */
+        DRAINING,
+        CLOSED
+    }
+
+    public interface Listener {
+        /** Called on the reader thread; the payload is only valid during the call. */
+        void onFrame(int type, long sequence, SyncCodec.PayloadReader payload) throws IOException;
+
+        /** Called once when the link ends; {@code cause} is null when the peer closed it cleanly. */
+        void onDisconnected(IOException cause);
+    }
+
+    private final SyncTransport transport;
+    private final Listener listener;
+    private final SyncWriter writer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile State state = State.CONNECTING;
+    // Set by drain(); whoever listened has moved on, so nothing more is passed to them
+    private volatile boolean muted = false;
+    // Any bytes count, so a link busy with one big frame isn't taken for dead
+    private volatile long lastReadNanos = System.nanoTime();
+
+    public SyncConnection(SyncTransport transport, int writeCapacity, Listener listener) throws IOException {
+        this.transport = transport;
+        this.listener = listener;
+        this.writer = new SyncWriter(transport.getOutputStream(), writeCapacity, this::disconnected);
+    }
+
+    public void start() {
+        if (closed.get()) {
+            return;
+        }
+        setState(State.CONNECTED);
+        SyncIo.run("SyncReader", this::readLoop);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public SyncTransport getTransport() {
+        return transport;
+    }
+
+    /** Queues a frame without blocking; see {@link SyncWriter#send(byte[], int)}. */
+    public boolean send(byte[] frame, int coalesceKey) {
+        return writer.send(frame, coalesceKey);
+    }
+
+    public boolean send(byte[] frame) {
+        return writer.send(frame);
+    }
+
+    public boolean sendBlocking(byte[] frame) throws InterruptedException {
+        return writer.sendBlocking(frame);
+    }
+
+    public String writerStats() {
+        return writer.stats();
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /** Nanoseconds since anything arrived on this link. */
+    public long nanosSinceRead() {
+        return System.nanoTime() - lastReadNanos;
+    }
+
+    /** Closes the link because it stopped working, e.g. no heartbeats; the listener gets {@code cause}. */
+    public void fail(IOException cause) {
+        disconnected(cause);
+    }
+
+    /** Closes the link from our side. The listener is not told about it. */
+    public void close() {
+        if (closed.getAndSet(true)) {
+            return;
+        }
+        shutDown();
+    }
+
+    /**
+     * Closes the link from our side once the queued frames are written, or after
+     * {@code timeoutMillis}. Returns right away. From here on the listener hears
+     * nothing, not even the link dropping while it drains.
+     */
+    public void drain(long timeoutMillis) {
+        if (closed.get()) {
+            return;
+        }
+        muted = true;
+        setState(State.DRAINING);
+        SyncIo.run("SyncDrain", () -> {
+            try {
+                if (!writer.drain(timeoutMillis)) {
+                    System.out.println("DEBUG: " + transport.describe() + " didn't drain in " + timeoutMillis + "ms");
+                }
+            } catch (InterruptedException e) {
+                // Closing anyway
+            }
+            close();
+        });
+    }
+
+    private void readLoop() {
+        SyncCodec.Decoder decoder = new SyncCodec.Decoder();
+        SyncCodec.FrameListener frames = (type, sequence, payload) -> {
+            if (!muted) {
+                listener.onFrame(type, sequence, payload);
+            }
+        };
+        try {
+            while (decoder.readFrom(transport.getInputStream(), frames)) {
+                // Every complete frame has been dispatched
+                lastReadNanos = System.nanoTime();
+            }
+            disconnected(null);
+        } catch (IOException e) {
+            disconnected(e);
+        }
+    }
+
+    private void setState(State next) {
+        state = next;
+        System.out.println("DEBUG: Sync connection over " + transport.describe() + " " + next);
+    }
+
+    private void disconnected(IOException cause) {
+        if (closed.getAndSet(true)) {
+            return; // Already closed, by us or by the other direction failing
+        }
+        shutDown();
+        if (!muted) {
+            listener.onDisconnected(cause);
+        }
+    }
+
+    private void shutDown() {
+        setState(State.CLOSED);
+        writer.close();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            System.out.println("DEBUG: Error closing " + transport.describe() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All sync links of one device: on a client the single link to the server, on the
+ * server one link per client.
+ *
+ * The server gives every client a slot, the smallest one not in use starting at 1
+ * (the server itself is slot 0). Slots free up when a client leaves, so a device
+ * that reconnects usually gets its old pages back.
+ *
+ * {@link #broadcast} hands the same encoded frame to every peer's own
+ * {@link SyncWriter}, so a change is encoded once and a slow client only backs up
+ * its own queue.
+ *
+ * Every peer gets a PING each heartbeat interval and answers with a PONG, which
+ * gives a round-trip time per link. A link that hasn't delivered a single byte for
+ * {@code deadAfterMillis} is failed, so a peer that walked out of range is noticed
+ * in seconds rather than whenever the socket finally gives up.
+ */
+public class SyncHub {
+
+    static final long HEARTBEAT_INTERVAL_MS = 1000;
+    // Several missed heartbeats, and long enough for a stall on a busy RFCOMM link
+    static final long DEAD_AFTER_MS = 5000;
+    // How long close() lets queued frames go out before the links are cut
+    static final long DRAIN_TIMEOUT_MS = 500;
+
+    public interface Listener {
+        /** Called on the peer's reader thread; the payload is only valid during the call. */
+        void onFrame(Peer peer, int type, long sequence, SyncCodec.PayloadReader payload) throws IOException;
+
+        /** Called once when a peer's link ends. */
+        void onPeerRemoved(Peer peer, IOException cause);
+    }
+
+    /** One linked device, with what we know about its clock and how quickly it hears from us. */
+    public final class Peer implements SyncConnection.Listener {
+        public final int slot;
+        public final ClockSync clock = new ClockSync(8);
+        private final SyncConnection connection;
+
+        // Heartbeat round trips, guarded by this
+        private long rttNanos = -1;
+        private long rttLastNanos = -1;
+
+        // Fan-out latency: broadcast to acknowledgment, guarded by this
+        private long latencyCount = 0;
+        private long latencyTotalNanos = 0;
+        private long latencyMaxNanos = 0;
+        private long latencyLastNanos = 0;
+
+        Peer(int slot, SyncTransport transport) throws IOException {
+            this.slot = slot;
+            this.connection = new SyncConnection(transport, writeCapacity, this);
+        }
+
+        public SyncConnection connection() {
+            return connection;
+        }
+
+        public boolean send(byte[] frame, int coalesceKey) {
+            return connection.send(frame, coalesceKey);
+        }
+
+        public synchronized void recordLatency(long nanos) {
+            latencyCount++;
+            latencyTotalNanos += nanos;
+            latencyMaxNanos = Math.max(latencyMaxNanos, nanos);
+            latencyLastNanos = nanos;
+        }
+
+        /** Smoothed heartbeat round-trip time, -1 until the first PONG. */
+        public synchronized long rttNanos() {
+            return rttNanos;
+        }
+
+        private synchronized void recordRoundTrip(long nanos) {
+            rttLastNanos = nanos;
+            rttNanos = rttNanos < 0 ? nanos : (rttNanos * 7 + nanos) / 8;
+        }
+
+        public synchronized String stats() {
+            String latency = latencyCount == 0
+                    ? "no acks yet"
+                    : "last=" + latencyLastNanos / 1_000_000 + "ms avg=" + latencyTotalNanos / latencyCount / 1_000_000
+                    + "ms max=" + latencyMaxNanos / 1_000_000 + "ms over " + latencyCount;
+            return "slot " + slot + " " + connection.getTransport().describe() + ": " + latency
+                    + ", rtt=" + rttLastNanos / 1_000_000 + "ms avg=" + rttNanos / 1_000_000 + "ms"
+                    + ", writer " + connection.writerStats();
+        }
+
+        @Override
+        public void onFrame(int type, long sequence, SyncCodec.PayloadReader payload) throws IOException {
+            switch (type) {
+                case SyncCodec.TYPE_PING:
+                    // Echoed as is, the sender's clock is all that matters
+                    send(heartbeatEncoder.encodeVarints(SyncCodec.TYPE_PONG, payload.readVarint()), SyncCodec.TYPE_PONG);
+                    break;
+                case SyncCodec.TYPE_PONG:
+                    recordRoundTrip(System.nanoTime() - payload.readVarint());
+                    break;
+                default:
+                    listener.onFrame(this, type, sequence, payload);
+            }
+        }
+
+        @Override
+        public void onDisconnected(IOException cause) {
+            peers.remove(this);
+            listener.onPeerRemoved(this, cause);
+        }
+    }
+
+    private final int writeCapacity;
+    private final boolean assignSlots;
+    private final Listener listener;
+    private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<>();
+    private final SyncCodec.Encoder heartbeatEncoder = new SyncCodec.Encoder();
+    private final long deadAfterNanos;
+    private final ScheduledFuture<?> heartbeats;
+
+    /** With {@code assignSlots} (the server) every new peer gets a slot; otherwise the one peer is slot 0. */
+    public SyncHub(int writeCapacity, boolean assignSlots, Listener listener) {
+        this(writeCapacity, assignSlots, listener, HEARTBEAT_INTERVAL_MS, DEAD_AFTER_MS);
+    }
+
+    public SyncHub(int writeCapacity, boolean assignSlots, Listener listener, long heartbeatMillis, long deadAfterMillis) {
+        this.writeCapacity = writeCapacity;
+        this.assignSlots = assignSlots;
+        this.listener = listener;
+        this.deadAfterNanos = TimeUnit.MILLISECONDS.toNanos(deadAfterMillis);
+        heartbeats = SyncIo.every("SyncHeartbeat", heartbeatMillis, this::heartbeat);
+    }
+
+    /**
+     * Creates a peer for {@code transport} without starting its reader, so the caller
+     * can wire up anything that must see the first frame before calling {@code start()}
+     * on its connection.
+     */
+    public synchronized Peer add(SyncTransport transport) throws IOException {
+        Peer peer = new Peer(assignSlots ? freeSlot() : 0, transport);
+        peers.add(peer);
+        return peer;
+    }
+
+    public List<Peer> peers() {
+        return peers;
+    }
+
+    public boolean isEmpty() {
+        return peers.isEmpty();
+    }
+
+    /** Pages in one spread: the highest slot in use plus one. Only meaningful on the server. */
+    public int spreadWidth() {
+        int highest = 0;
+        for (Peer peer : peers) {
+            highest = Math.max(highest, peer.slot);
+        }
+        return highest + 1;
+    }
+
+    /** Queues {@code frame} for every peer but {@code except} (may be null). Returns how many dropped it. */
+    public int broadcast(byte[] frame, int coalesceKey, Peer except) {
+        int dropped = 0;
+        for (Peer peer : peers) {
+            if (peer != except && !peer.send(frame, coalesceKey)) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    public String stats() {
+        StringBuilder builder = new StringBuilder();
+        for (Peer peer : peers) {
+            if (builder.length() > 0) {
+                builder.append("; ");
+            }
+            builder.append(peer.stats());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Closes every link once its queued frames are out; returns right away. The
+     * listener hears nothing more, even from links that drop while draining.
+     */
+    public void close() {
+        heartbeats.cancel(false);
+        for (Peer peer : peers) {
+            peer.connection.drain(DRAIN_TIMEOUT_MS);
+        }
+        peers.clear();
+    }
+
+    private void heartbeat() {
+        for (Peer peer : peers) {
+            long silent = peer.connection.nanosSinceRead();
+            if (silent > deadAfterNanos) {
+                System.out.println("DEBUG: Nothing from slot " + peer.slot + " for " + silent / 1_000_000 + "ms, dropping the link");
+                peer.connection.fail(new IOException("No heartbeat for " + silent / 1_000_000 + "ms"));
+            } else {
+                // Coalesced, so a backed-up writer holds at most one
+                peer.send(heartbeatEncoder.encodeVarints(SyncCodec.TYPE_PING, System.nanoTime()), SyncCodec.TYPE_PING);
+            }
+        }
+    }
+
+    private int freeSlot() {
+        int slot = 1;
+        while (true) {
+            boolean taken = false;
+            for (Peer peer : peers) {
+                if (peer.slot == slot) {
+                    taken = true;
+                    break;
+                }
+            }
+            if (!taken) {
+                return slot;
+            }
+            slot++;
+        }
+    }
+}
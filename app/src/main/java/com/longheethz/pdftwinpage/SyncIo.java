@@ -0,0 +1,79 @@
+package com.longheethz.pdftwinpage;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one pool all blocking sync I/O runs on: every link's reader and writer,
+ * document transfers, heartbeats, document index saves, and dialing, accepting
+ * and reconnecting.
+ *
+ * Readers and writers block on their socket for as long as the link is up, so the
+ * pool has a thread per task up to {@link #MAX_THREADS}; past that, tasks wait in
+ * line. Idle threads go away after a minute. Each task runs under its own thread
+ * name, so logs and traces still say "SyncReader" or "SyncWriter".
+ */
+public final class SyncIo {
+
+    // Bluetooth tops out at seven links. Each has a reader, a writer and at most a
+    // couple of transfer tasks, with room left for accepting and dialing
+    static final int MAX_THREADS = 32;
+
+    private static final String IDLE_NAME = "SyncIo";
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, IDLE_NAME + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Only hands delayed and periodic tasks to the pool, so one thread is plenty
+    private static final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "SyncIoTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private SyncIo() {}
+
+    /** Runs {@code task} on the pool as {@code name}. Cancel the future to interrupt it. */
+    public static Future<?> run(String name, Runnable task) {
+        return executor.submit(() -> {
+            Thread thread = Thread.currentThread();
+            String idleName = thread.getName();
+            thread.setName(name);
+            try {
+                task.run();
+            } finally {
+                thread.setName(idleName);
+            }
+        });
+    }
+
+    /** Runs {@code task} on the pool once, after {@code delayMillis}, unless the returned future is cancelled first. */
+    public static ScheduledFuture<?> after(String name, long delayMillis, Runnable task) {
+        return timer.schedule(() -> run(name, task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code task} on the pool every {@code periodMillis}, first after one period,
+     * until the returned future is cancelled. The task must not block for long.
+     */
+    public static ScheduledFuture<?> every(String name, long periodMillis, Runnable task) {
+        return timer.scheduleWithFixedDelay(() -> run(name, task), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,28 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream between two devices that sync frames travel over.
+ *
+ * On the phones this is a Bluetooth RFCOMM socket; tests and benchmarks use the
+ * in-memory or TCP loopback versions so the sync path runs on a plain JVM.
+ */
+public interface SyncTransport extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+
+    /** Short human-readable name for logs, e.g. "tcp 127.0.0.1:4242". */
+    String describe();
+
+    /** Closes both directions. Blocked reads and writes fail with an IOException. */
+    @Override
+    void close() throws IOException;
+}
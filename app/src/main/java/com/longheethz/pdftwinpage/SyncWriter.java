@@ -0,0 +1,242 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes sync frames to the connection on its own {@link SyncIo} thread.
+ *
+ * Callers (usually the UI thread) only enqueue; a blocking socket write on a
+ * congested link no longer stalls them. Whatever is queued when the writer wakes up
+ * goes out as one batch with a single flush. Frames sent with a coalesce key replace
+ * any queued frame with the same key, so only the newest PAGE_CHANGE is ever sent.
+ * When the queue is still full, {@link #send} drops the frame and
+ * {@link #sendBlocking} waits for room.
+ *
+ * Bulk frames from {@link #sendBlocking} (document chunks) wait in their own queue
+ * and go out after the small control frames, so a page turn doesn't queue up behind
+ * a transfer. Sequence numbers can therefore leave out of order between the two.
+ *
+ * {@link #close} discards whatever is still queued; {@link #drain} refuses new
+ * frames but writes out the queued ones first.
+ */
+public class SyncWriter {
+
+    public static final int NO_COALESCE = -1;
+
+    // Bulk bytes per socket write, so queued control frames never wait behind more than this
+    private static final int BULK_BYTES_PER_BATCH = 32 * 1024;
+
+    public interface Listener {
+        void onWriteFailed(IOException e);
+    }
+
+    private static class Pending {
+        final byte[] frame;
+        final int coalesceKey;
+        final long enqueuedNanos;
+
+        Pending(byte[] frame, int coalesceKey) {
+            this.frame = frame;
+            this.coalesceKey = coalesceKey;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final OutputStream outputStream;
+    private final int capacity;
+    private final Listener listener;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final ArrayDeque<Pending> bulk = new ArrayDeque<>();
+    private final Future<?> task;
+    private boolean closed = false;
+    private boolean draining = false;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    // Reused batch buffer, writer thread only
+    private byte[] batch = new byte[4096];
+
+    // Metrics, guarded by this
+    private long framesWritten = 0;
+    private long batchesWritten = 0;
+    private long framesCoalesced = 0;
+    private long framesDropped = 0;
+    private int maxQueueDepth = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+
+    public SyncWriter(OutputStream outputStream, int capacity, Listener listener) {
+        this.outputStream = outputStream;
+        this.capacity = capacity;
+        this.listener = listener;
+        this.task = SyncIo.run("SyncWriter", this::run);
+    }
+
+    /** Queues a frame without blocking. Returns false if it had to be dropped. */
+    public boolean send(byte[] frame, int coalesceKey) {
+        synchronized (this) {
+            if (closed || draining) {
+                return false;
+            }
+            boolean coalesced = coalesceKey != NO_COALESCE && removeQueued(coalesceKey);
+            if (!coalesced && queue.size() >= capacity) {
+                framesDropped++;
+                return false;
+            }
+            enqueue(frame, coalesceKey);
+            return true;
+        }
+    }
+
+    public boolean send(byte[] frame) {
+        return send(frame, NO_COALESCE);
+    }
+
+    /** Queues a bulk frame, waiting for room if the bulk queue is full. Never the UI thread. */
+    public boolean sendBlocking(byte[] frame) throws InterruptedException {
+        synchronized (this) {
+            while (!closed && !draining && bulk.size() >= capacity) {
+                wait();
+            }
+            if (closed || draining) {
+                return false;
+            }
+            bulk.addLast(new Pending(frame, NO_COALESCE));
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size() + bulk.size());
+            notifyAll();
+            return true;
+        }
+    }
+
+    public synchronized int queueDepth() {
+        return queue.size() + bulk.size();
+    }
+
+    public synchronized String stats() {
+        long averageLatency = framesWritten == 0 ? 0 : totalLatencyNanos / framesWritten;
+        return "queued=" + queue.size() + "+" + bulk.size() + " maxQueued=" + maxQueueDepth
+                + " written=" + framesWritten + " batches=" + batchesWritten
+                + " coalesced=" + framesCoalesced + " dropped=" + framesDropped
+                + " latency avg=" + averageLatency / 1000 + "us max=" + maxLatencyNanos / 1000 + "us";
+    }
+
+    /** Stops the writer. Frames still queued are discarded. */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            bulk.clear();
+            notifyAll();
+        }
+        task.cancel(true);
+    }
+
+    /**
+     * Stops taking frames and waits up to {@code timeoutMillis} for the queued ones
+     * to be written. Returns true if they all went out; the writer is stopped either way.
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            draining = true;
+            notifyAll();
+        }
+        boolean drained = stopped.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        close();
+        return drained;
+    }
+
+    // Must hold the lock
+    private void enqueue(byte[] frame, int coalesceKey) {
+        queue.addLast(new Pending(frame, coalesceKey));
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size() + bulk.size());
+        notifyAll();
+    }
+
+    // Must hold the lock. Drops the superseded frame so the new one goes to the back
+    // and sequence numbers still leave in order
+    private boolean removeQueued(int coalesceKey) {
+        Iterator<Pending> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().coalesceKey == coalesceKey) {
+                iterator.remove();
+                framesCoalesced++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run() {
+        ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!closed && !draining && queue.isEmpty() && bulk.isEmpty()) {
+                        wait();
+                    }
+                    if (closed || (draining && queue.isEmpty() && bulk.isEmpty())) {
+                        return;
+                    }
+                    inFlight.addAll(queue);
+                    queue.clear();
+                    int bulkBytes = 0;
+                    while (!bulk.isEmpty()
+                            && (bulkBytes == 0 || bulkBytes + bulk.peekFirst().frame.length <= BULK_BYTES_PER_BATCH)) {
+                        Pending pending = bulk.pollFirst();
+                        bulkBytes += pending.frame.length;
+                        inFlight.addLast(pending);
+                    }
+                    notifyAll(); // Room for sendBlocking callers
+                }
+
+                int length = 0;
+                for (Pending pending : inFlight) {
+                    length = append(length, pending.frame);
+                }
+                outputStream.write(batch, 0, length);
+                outputStream.flush();
+
+                long now = System.nanoTime();
+                synchronized (this) {
+                    for (Pending pending : inFlight) {
+                        long latency = now - pending.enqueuedNanos;
+                        totalLatencyNanos += latency;
+                        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                    }
+                    framesWritten += inFlight.size();
+                    batchesWritten++;
+                }
+                inFlight.clear();
+            }
+        } catch (InterruptedException e) {
+            // close() interrupts us out of a wait
+        } catch (IOException e) {
+            synchronized (this) {
+                closed = true;
+                queue.clear();
+                bulk.clear();
+                notifyAll();
+            }
+            if (listener != null) {
+                listener.onWriteFailed(e);
+            }
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private int append(int length, byte[] frame) {
+        if (length + frame.length > batch.length) {
+            byte[] larger = new byte[Math.max(length + frame.length, batch.length * 2)];
+            System.arraycopy(batch, 0, larger, 0, length);
+            batch = larger;
+        }
+        System.arraycopy(frame, 0, batch, length, frame.length);
+        return length + frame.length;
+    }
+}
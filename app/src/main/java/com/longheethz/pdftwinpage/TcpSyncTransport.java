@@ -0,0 +1,54 @@
+package com.longheethz.pdftwinpage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/** {@link SyncTransport} over a TCP socket, mainly for loopback tests and benchmarks. */
+public class TcpSyncTransport implements SyncTransport {
+
+    private final Socket socket;
+
+    public TcpSyncTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        // Sync frames are tiny and latency matters more than packet count
+        socket.setTcpNoDelay(true);
+    }
+
+    /** Connects two transports over 127.0.0.1. */
+    public static TcpSyncTransport[] loopbackPair() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            Socket accepted = server.accept();
+            return new TcpSyncTransport[] { new TcpSyncTransport(accepted), new TcpSyncTransport(client) };
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public String describe() {
+        return "tcp " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,56 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import kotlin.random.Random
+
+import org.junit.Assert.*
+
+class ClockSyncTest {
+
+    @Test
+    fun symmetricDelayGivesExactOffset() {
+        val sync = ClockSync(8)
+        // Peer clock is 5 s ahead, 10 ms each way, 1 ms to answer
+        val t0 = 1_000_000_000L
+        val t1 = t0 + 5_000_000_000L + 10_000_000L
+        val t2 = t1 + 1_000_000L
+        val t3 = t0 + 21_000_000L
+        sync.addSample(t0, t1, t2, t3)
+
+        assertEquals(5_000_000_000L, sync.offsetNanos())
+        assertEquals(20_000_000L, sync.roundTripNanos())
+        assertEquals(t0, sync.toLocalTime(sync.toPeerTime(t0)))
+    }
+
+    // Queueing delays are one-sided and random; the fastest exchange bounds the error
+    @Test
+    fun queueingDelaysAreFilteredOut() {
+        val random = Random(7)
+        val trueOffset = -2_345_678_000L
+        val baseOneWay = 8_000_000L
+        val sync = ClockSync(8)
+
+        var now = 10_000_000_000L
+        repeat(8) {
+            val t0 = now
+            val there = baseOneWay + random.nextLong(0, 40_000_000L)
+            val back = baseOneWay + random.nextLong(0, 40_000_000L)
+            val t1 = t0 + there + trueOffset
+            val t2 = t1 + 500_000L
+            val t3 = t2 - trueOffset + back
+            sync.addSample(t0, t1, t2, t3)
+            now += 200_000_000L
+        }
+
+        val error = Math.abs(sync.offsetNanos() - trueOffset)
+        assertTrue("error ${error / 1000}us", error <= sync.roundTripNanos() / 2)
+        assertTrue(sync.jitterNanos() > 0)
+    }
+
+    @Test
+    fun negativeRoundTripIsRejected() {
+        val sync = ClockSync(4)
+        sync.addSample(100, 50, 500, 200)
+        assertFalse(sync.hasEstimate())
+    }
+}
@@ -0,0 +1,87 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+import org.junit.Assert.*
+
+class DocumentStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun content(seed: Int, size: Int) = ByteArray(size) { (it * 31 + seed).toByte() }
+
+    @Test
+    fun sameContentIsStoredOnce() {
+        val store = DocumentStore(folder.newFolder("docs"), 10_000_000)
+        val bytes = content(1, 200_000)
+
+        val first = store.importStream(bytes.inputStream(), "score.pdf")
+        val second = store.importStream(bytes.inputStream(), "copy of score.pdf")
+
+        assertEquals(first.hash, second.hash)
+        assertArrayEquals(bytes, store.fileFor(first).readBytes())
+        assertEquals(200_000L, store.totalBytes())
+    }
+
+    @Test
+    fun repeatOpenSkipsCopyAfterReadingHead() {
+        val dir = folder.newFolder("docs")
+        val bytes = content(2, 300_000)
+        val stored = DocumentStore(dir, 10_000_000).importStream(bytes.inputStream(), "book.pdf")
+
+        // A fresh store instance has to find it through the persisted index
+        val counting = CountingInputStream(bytes)
+        val found = DocumentStore(dir, 10_000_000).importOrFind(counting, bytes.size.toLong(), "book.pdf")
+
+        assertEquals(stored.hash, found.hash)
+        assertEquals(DocumentStore.HEAD_BYTES, counting.bytesRead)
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsedOverBudget() {
+        val store = DocumentStore(folder.newFolder("docs"), 250_000)
+
+        val a = store.importStream(content(3, 100_000).inputStream(), "a.pdf")
+        Thread.sleep(5)
+        val b = store.importStream(content(4, 100_000).inputStream(), "b.pdf")
+        Thread.sleep(5)
+        assertNotNull(store.find(a.hash)) // a is now more recent than b
+        Thread.sleep(5)
+        val c = store.importStream(content(5, 100_000).inputStream(), "c.pdf")
+
+        assertNotNull(store.find(a.hash))
+        assertNull(store.find(b.hash))
+        assertNotNull(store.find(c.hash))
+    }
+
+    @Test
+    fun lookupsSaveTheIndexLater() {
+        val dir = folder.newFolder("docs")
+        val store = DocumentStore(dir, 10_000_000)
+        val a = store.importStream(content(6, 1_000).inputStream(), "a.pdf")
+        val index = File(dir, "index.txt")
+        val saved = index.readText()
+
+        Thread.sleep(5)
+        val touched = store.find(a.hash)!!
+        assertTrue(touched.lastUsed > a.lastUsed)
+        assertEquals(saved, index.readText())
+
+        store.flush()
+        assertTrue(index.readText().contains("\t${touched.lastUsed}\t"))
+    }
+
+    private class CountingInputStream(bytes: ByteArray) : java.io.ByteArrayInputStream(bytes) {
+        var bytesRead = 0
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val read = super.read(b, off, len)
+            if (read > 0) bytesRead += read
+            return read
+        }
+    }
+}
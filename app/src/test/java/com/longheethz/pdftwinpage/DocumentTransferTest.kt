@@ -0,0 +1,182 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.Assert.*
+
+class DocumentTransferTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun content(seed: Int, size: Int) = ByteArray(size) { (it * 31 + seed + it / 977).toByte() }
+
+    // One device with its own store, link and transfer, wired like MainActivity
+    private inner class Device(name: String) : DocumentTransfer.Listener, SyncConnection.Listener {
+        val store = DocumentStore(folder.newFolder(name), 100_000_000)
+        val transfer = DocumentTransfer({ store }, SyncCodec.Encoder(), this)
+        val received = CountDownLatch(1)
+        val chunksSeen = AtomicInteger()
+        @Volatile var receivedEntry: DocumentStore.Entry? = null
+        @Volatile var disconnected = CountDownLatch(1)
+        private var connection: SyncConnection? = null
+
+        fun connect(transport: SyncTransport) {
+            chunksSeen.set(0)
+            disconnected = CountDownLatch(1)
+            val link = SyncConnection(transport, 64, this)
+            connection = link
+            transfer.attach(link)
+            link.start()
+        }
+
+        override fun onFrame(type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {
+            if (type == SyncCodec.TYPE_DOC_CHUNK) chunksSeen.incrementAndGet()
+            transfer.handleFrame(type, payload)
+        }
+
+        override fun onDisconnected(cause: IOException?) {
+            transfer.close()
+            disconnected.countDown()
+        }
+
+        override fun onProgress(sending: Boolean, name: String, bytesDone: Long, totalBytes: Long, bytesPerSecond: Long) {}
+
+        override fun onReceived(entry: DocumentStore.Entry) {
+            receivedEntry = entry
+            received.countDown()
+        }
+
+        override fun onFailed(sending: Boolean, name: String, message: String) = fail("$name: $message")
+
+        fun close() {
+            transfer.close()
+            connection?.close()
+        }
+    }
+
+    private fun pair(): Pair<Device, Device> {
+        val sender = Device("sender")
+        val receiver = Device("receiver")
+        connect(sender, receiver)
+        return Pair(sender, receiver)
+    }
+
+    private fun connect(sender: Device, receiver: Device, impairment: ImpairedSyncTransport.Impairment? = null) {
+        val (a, b) = PipedSyncTransport.pair()
+        if (impairment == null) {
+            sender.connect(a)
+            receiver.connect(b)
+        } else {
+            sender.connect(ImpairedSyncTransport(a, impairment, 1))
+            receiver.connect(ImpairedSyncTransport(b, impairment, 2))
+        }
+    }
+
+    @Test
+    fun documentArrivesIntact() {
+        val (sender, receiver) = pair()
+        val bytes = content(1, 1_000_000)
+        val entry = sender.store.importStream(bytes.inputStream(), "score.pdf")
+
+        sender.transfer.offer(entry)
+
+        assertTrue(receiver.received.await(10, TimeUnit.SECONDS))
+        val got = receiver.receivedEntry!!
+        assertEquals(entry.hash, got.hash)
+        assertArrayEquals(bytes, receiver.store.fileFor(got).readBytes())
+        assertFalse(receiver.store.partialFileFor(entry.hash).exists())
+        sender.close()
+        receiver.close()
+    }
+
+    @Test
+    fun resumesAfterDisconnect() {
+        val sender = Device("sender")
+        val receiver = Device("receiver")
+        val bytes = content(2, 40 * DocumentTransfer.CHUNK_BYTES + 123)
+        val entry = sender.store.importStream(bytes.inputStream(), "book.pdf")
+
+        // The first session drops partway through, about 12 chunks in
+        val slowLink = ImpairedSyncTransport.Impairment().bandwidth(200_000).disconnectAfter(1000)
+        connect(sender, receiver, slowLink)
+        sender.transfer.offer(entry)
+        assertTrue(receiver.disconnected.await(10, TimeUnit.SECONDS))
+        assertTrue(sender.disconnected.await(10, TimeUnit.SECONDS))
+        val firstSession = receiver.chunksSeen.get()
+        assertTrue(firstSession in 1 until 41)
+        assertTrue(receiver.store.blockMapFileFor(entry.hash).exists())
+
+        // Offered again over the new link, like MainActivity does, only the rest crosses it
+        connect(sender, receiver)
+        sender.transfer.offer(entry)
+        assertTrue(receiver.received.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(bytes, receiver.store.fileFor(receiver.receivedEntry!!).readBytes())
+        assertTrue(receiver.chunksSeen.get() <= 41 - firstSession)
+        assertFalse(receiver.store.blockMapFileFor(entry.hash).exists())
+        sender.close()
+        receiver.close()
+    }
+
+    @Test
+    fun editedDocumentSendsOnlyChangedBlocks() {
+        val (sender, receiver) = pair()
+        val chunk = DocumentTransfer.CHUNK_BYTES
+        val old = content(4, 30 * chunk)
+        receiver.store.importStream(old.inputStream(), "part.pdf")
+
+        // Two blocks edited in place and a block and a bit appended
+        val appended = ByteArray(chunk + 100).also { Random(7).nextBytes(it) }
+        val edited = old + appended
+        edited[5 * chunk + 10] = (edited[5 * chunk + 10] + 1).toByte()
+        edited[17 * chunk] = (edited[17 * chunk] + 1).toByte()
+        val entry = sender.store.importStream(edited.inputStream(), "part.pdf")
+
+        sender.transfer.offer(entry)
+
+        assertTrue(receiver.received.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(edited, receiver.store.fileFor(receiver.receivedEntry!!).readBytes())
+        assertEquals(4, receiver.chunksSeen.get())
+        sender.close()
+        receiver.close()
+    }
+
+    @Test
+    fun documentOpenedInPlaceIsSentWithoutStoringIt() {
+        val (sender, receiver) = pair()
+        val bytes = content(5, 500_000)
+        val file = folder.newFile("in place.pdf").apply { writeBytes(bytes) }
+        val entry = file.inputStream().use { sender.store.describe(it, "in place.pdf") }
+
+        sender.transfer.offer(entry) { RandomAccessFile(file, "r").channel }
+
+        assertTrue(receiver.received.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(bytes, receiver.store.fileFor(receiver.receivedEntry!!).readBytes())
+        assertEquals(0L, sender.store.totalBytes())
+        sender.close()
+        receiver.close()
+    }
+
+    @Test
+    fun storedDocumentIsNotSentAgain() {
+        val (sender, receiver) = pair()
+        val bytes = content(3, 300_000)
+        val entry = sender.store.importStream(bytes.inputStream(), "known.pdf")
+        receiver.store.importStream(bytes.inputStream(), "known.pdf")
+
+        sender.transfer.offer(entry)
+
+        assertTrue(receiver.received.await(10, TimeUnit.SECONDS))
+        assertEquals(0, receiver.chunksSeen.get())
+        sender.close()
+        receiver.close()
+    }
+}
@@ -0,0 +1,96 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+import org.junit.Assert.*
+
+class LinkRaceTest {
+
+    // One simulated device: dialing it hands the far end of a fresh pipe to its accept()
+    private class Device : LinkRace.Listener {
+        val incoming = LinkedBlockingQueue<Any>()
+        @Volatile var listening = false
+        lateinit var peer: Device
+        val linked = CountDownLatch(1)
+        @Volatile var transport: SyncTransport? = null
+        @Volatile var isServer = false
+
+        val endpoint = object : LinkRace.Endpoint {
+            override fun accept(): SyncTransport {
+                listening = true
+                val next = try {
+                    incoming.take()
+                } catch (e: InterruptedException) {
+                    throw InterruptedIOException()
+                }
+                return next as? SyncTransport ?: throw IOException("Cancelled")
+            }
+
+            override fun dial(): SyncTransport {
+                if (!peer.listening) throw IOException("Not listening")
+                val (near, far) = PipedSyncTransport.pair()
+                peer.incoming.add(far)
+                return near
+            }
+
+            override fun cancel() {
+                incoming.add(CANCELLED)
+            }
+        }
+
+        override fun onLinked(transport: SyncTransport, isServer: Boolean, setupNanos: Long) {
+            this.transport = transport
+            this.isServer = isServer
+            linked.countDown()
+        }
+    }
+
+    private fun devices(): Pair<Device, Device> {
+        val a = Device()
+        val b = Device()
+        a.peer = b
+        b.peer = a
+        return a to b
+    }
+
+    private fun assertOneLink(a: Device, b: Device) {
+        assertTrue(a.linked.await(5, TimeUnit.SECONDS))
+        assertTrue(b.linked.await(5, TimeUnit.SECONDS))
+        assertNotEquals(a.isServer, b.isServer)
+
+        // Both kept the two ends of the same link
+        a.transport!!.outputStream.write(42)
+        a.transport!!.outputStream.flush()
+        assertEquals(42, b.transport!!.inputStream.read())
+    }
+
+    @Test
+    fun bothDialingEndOnOneLink() {
+        val (a, b) = devices()
+        // Listening before either dials, so both dials connect
+        a.listening = true
+        b.listening = true
+        LinkRace(a.endpoint, a).start()
+        LinkRace(b.endpoint, b).start()
+        assertOneLink(a, b)
+    }
+
+    @Test
+    fun lateDeviceStillLinks() {
+        val (a, b) = devices()
+        LinkRace(a.endpoint, a).start()
+        // a's first dials fail until b shows up
+        Thread.sleep(700)
+        LinkRace(b.endpoint, b).start()
+        assertOneLink(a, b)
+    }
+
+    companion object {
+        private val CANCELLED = Any()
+    }
+}
@@ -0,0 +1,118 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import kotlin.random.Random
+
+import org.junit.Assert.*
+
+class PageSyncStateTest {
+
+    @Test
+    fun resetStateSurvivesTheWire() {
+        val state = PageSyncState(0)
+        state.localTurn(6)
+        state.reset(0)
+
+        val payload = SyncCodec.PayloadWriter()
+        state.current().writeTo(payload)
+        val frame = SyncCodec.Encoder().encode(SyncCodec.TYPE_PAGE_CHANGE, payload)
+
+        var received: PageSyncState.Update? = null
+        SyncCodec.Decoder().feed(frame, 0, frame.size) { _, _, reader -> received = PageSyncState.Update.readFrom(reader) }
+        assertEquals(state.current().toString(), received.toString())
+        assertEquals(-1, received!!.origin)
+    }
+
+    @Test
+    fun ackNamesItsUpdate() {
+        val update = PageSyncState(0).current()
+        val payload = SyncCodec.PayloadWriter()
+        update.writeAckTo(payload)
+        val frame = SyncCodec.Encoder().encode(SyncCodec.TYPE_PAGE_ACK, payload)
+
+        var acked = false
+        SyncCodec.Decoder().feed(frame, 0, frame.size) { _, _, reader -> acked = update.isAckedBy(reader) }
+        assertTrue(acked)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun negativeVarintIsRefused() {
+        SyncCodec.PayloadWriter().writeVarint(-1)
+    }
+
+    @Test
+    fun staleUpdateIsIgnored() {
+        val state = PageSyncState(0)
+        assertTrue(state.applyRemote(PageSyncState.Update(4, 2, 1)))
+        assertFalse(state.applyRemote(PageSyncState.Update(2, 1, 1)))
+        assertEquals(4, state.anchor())
+    }
+
+    @Test
+    fun duplicateUpdateChangesNothing() {
+        val state = PageSyncState(0)
+        val update = PageSyncState.Update(6, 3, 1)
+        assertTrue(state.applyRemote(update))
+        assertFalse(state.applyRemote(update))
+        assertEquals(6, state.anchor())
+    }
+
+    @Test
+    fun localTurnOutranksEverythingSeen() {
+        val state = PageSyncState(0)
+        state.applyRemote(PageSyncState.Update(8, 10, 1))
+        val update = state.localTurn(10)
+        assertTrue(update.version > 10)
+        assertEquals(10, state.anchor())
+    }
+
+    @Test
+    fun concurrentTurnsResolveTheSameWayOnBothDevices() {
+        val left = PageSyncState(0)
+        val right = PageSyncState(1)
+        val fromLeft = left.localTurn(2)
+        val fromRight = right.localTurn(4)
+
+        left.applyRemote(fromRight)
+        right.applyRemote(fromLeft)
+
+        assertEquals(left.anchor(), right.anchor())
+        assertEquals(4, left.anchor()) // Same version, higher origin wins
+    }
+
+    // Fast alternating taps with every message delayed, reordered and sometimes
+    // duplicated; the old 500 ms timer let these leave the devices a spread apart
+    @Test
+    fun convergesUnderReorderingAndDuplicates() {
+        repeat(200) { seed ->
+            val random = Random(seed)
+            val devices = listOf(PageSyncState(0), PageSyncState(1))
+            val inFlight = listOf(ArrayList<PageSyncState.Update>(), ArrayList())
+
+            repeat(40) {
+                val sender = random.nextInt(2)
+                val update = devices[sender].localTurn(random.nextInt(0, 50) * 2)
+                val toPeer = inFlight[1 - sender]
+                toPeer.add(update)
+                if (random.nextInt(4) == 0) toPeer.add(update)
+
+                // Deliver some of what's in flight, in any order
+                for (receiver in 0..1) {
+                    val queue = inFlight[receiver]
+                    queue.shuffle(random)
+                    repeat(random.nextInt(queue.size + 1)) {
+                        devices[receiver].applyRemote(queue.removeAt(queue.size - 1))
+                    }
+                }
+            }
+
+            for (receiver in 0..1) {
+                inFlight[receiver].shuffle(random)
+                inFlight[receiver].forEach { devices[receiver].applyRemote(it) }
+            }
+
+            assertEquals("seed $seed", devices[0].anchor(), devices[1].anchor())
+            assertEquals("seed $seed", devices[0].current().version, devices[1].current().version)
+        }
+    }
+}
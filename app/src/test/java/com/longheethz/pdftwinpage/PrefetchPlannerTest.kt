@@ -0,0 +1,76 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+
+import org.junit.Assert.*
+
+class PrefetchPlannerTest {
+
+    private val ms = 1_000_000L
+    private val mb = 1024L * 1024
+
+    private fun turns(planner: PrefetchPlanner, pages: List<Int>, dwell: Long) {
+        var now = 0L
+        for (page in pages) {
+            now += dwell
+            planner.onTurn(page, now)
+        }
+    }
+
+    @Test
+    fun learnsForwardReading() {
+        val planner = PrefetchPlanner(64 * mb)
+        turns(planner, listOf(0, 2, 4, 6, 8, 10), 5000 * ms)
+
+        assertTrue(planner.forwardProbability() > 0.9)
+        assertArrayEquals(intArrayOf(12, 14), planner.plan(10, 100, 2, 100 * ms, 4 * mb))
+    }
+
+    @Test
+    fun learnsBackwardReading() {
+        val planner = PrefetchPlanner(64 * mb)
+        turns(planner, listOf(40, 39, 38, 37, 36, 35, 34), 5000 * ms)
+
+        assertTrue(planner.forwardProbability() < 0.1)
+        assertArrayEquals(intArrayOf(33, 32), planner.plan(34, 100, 1, 100 * ms, 4 * mb))
+    }
+
+    @Test
+    fun mixedDirectionsCoverBothSides() {
+        val planner = PrefetchPlanner(64 * mb)
+        turns(planner, listOf(10, 12, 10, 12, 10, 12, 10), 5000 * ms)
+
+        val plan = planner.plan(10, 100, 2, 100 * ms, 4 * mb)
+        assertTrue(plan.contains(12))
+        assertTrue(plan.contains(8))
+    }
+
+    @Test
+    fun fastTurnsWidenTheWindow() {
+        val planner = PrefetchPlanner(64 * mb)
+        turns(planner, (0..20).map { it * 2 }, 200 * ms)
+
+        // 600 ms renders with a turn every 200 ms: three turns per render, plus one
+        assertEquals(4, planner.plan(40, 100, 2, 600 * ms, 4 * mb).size)
+        assertEquals(2, planner.plan(40, 100, 2, 100 * ms, 4 * mb).size)
+    }
+
+    @Test
+    fun windowStaysWithinBudget() {
+        val planner = PrefetchPlanner(10 * mb)
+        turns(planner, (0..20).map { it * 2 }, 100 * ms)
+
+        assertEquals(2, planner.plan(40, 100, 2, 2000 * ms, 4 * mb).size)
+        assertEquals(1, planner.plan(40, 100, 2, 2000 * ms, 16 * mb).size)
+    }
+
+    @Test
+    fun staysInsideTheDocument() {
+        val planner = PrefetchPlanner(64 * mb)
+        turns(planner, listOf(0, 2, 4, 6), 5000 * ms)
+
+        val plan = planner.plan(8, 10, 2, 100 * ms, 4 * mb)
+        assertTrue(plan.all { it in 0 until 10 })
+        assertEquals(6, plan.first())
+    }
+}
@@ -0,0 +1,91 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+
+import org.junit.Assert.*
+
+class RemoteRenderPlannerTest {
+
+    private val ms = 1_000_000L
+
+    @Test
+    fun rendersLocallyUntilBothSidesAreMeasured() {
+        val planner = RemoteRenderPlanner()
+        assertFalse(planner.useRemote(-1))
+        assertFalse(planner.useRemote(900 * ms))
+
+        planner.onPeerInfo(100 * ms)
+        assertFalse(planner.useRemote(-1))
+    }
+
+    @Test
+    fun probesWhenPeerIsMuchFaster() {
+        val planner = RemoteRenderPlanner()
+        planner.onPeerInfo(100 * ms)
+
+        assertTrue(planner.useRemote(900 * ms))
+        // Only a bit faster isn't worth a trip over the link
+        assertFalse(planner.useRemote(150 * ms))
+    }
+
+    @Test
+    fun measuredLinkDecides() {
+        val planner = RemoteRenderPlanner()
+        planner.onPeerInfo(100 * ms)
+
+        // 200 KB pages over a 1 MB/s link: 100 ms render + ~195 ms on the air + 20 ms decode
+        planner.onImage(200 * 1024, 100 * ms + 195 * ms, 100 * ms, 20 * ms)
+        val estimate = planner.remoteEstimateNanos()
+        assertEquals(315.0, estimate / 1e6, 5.0)
+
+        assertTrue(planner.useRemote(900 * ms))
+        assertFalse(planner.useRemote(300 * ms))
+    }
+
+    @Test
+    fun hysteresisKeepsTheCurrentChoice() {
+        val planner = RemoteRenderPlanner()
+        planner.onPeerInfo(100 * ms)
+        planner.onImage(100 * 1024, 200 * ms, 100 * ms, 0)
+        val estimate = planner.remoteEstimateNanos()
+
+        // Just above the estimate isn't enough to switch, but is enough to stay
+        assertFalse(planner.useRemote(estimate * 11 / 10))
+        assertTrue(planner.useRemote(estimate * 2))
+        assertTrue(planner.useRemote(estimate * 11 / 10))
+    }
+
+    @Test
+    fun timeoutsBackOff() {
+        val planner = RemoteRenderPlanner()
+        planner.onPeerInfo(100 * ms)
+        planner.onImage(100 * 1024, 200 * ms, 100 * ms, 0)
+        val before = planner.remoteEstimateNanos()
+
+        planner.onTimeout()
+        assertTrue(planner.remoteEstimateNanos() > before)
+
+        planner.onTimeout()
+        planner.onTimeout()
+        assertFalse(planner.useRemote(10_000 * ms))
+
+        // A page that does arrive turns it back on
+        planner.onImage(100 * 1024, 200 * ms, 100 * ms, 0)
+        assertTrue(planner.useRemote(10_000 * ms))
+    }
+
+    @Test
+    fun probesAgainAfterBackingOff() {
+        val planner = RemoteRenderPlanner()
+        planner.onPeerInfo(100 * ms)
+        planner.onImage(100 * 1024, 200 * ms, 100 * ms, 0)
+        repeat(RemoteRenderPlanner.MAX_TIMEOUTS) { planner.onTimeout(0) }
+        assertFalse(planner.useRemote(10_000 * ms, RemoteRenderPlanner.REPROBE_NANOS - 1))
+
+        // Probed like a fresh link, and one more miss backs off again
+        assertTrue(planner.useRemote(10_000 * ms, RemoteRenderPlanner.REPROBE_NANOS))
+        assertEquals(-1L, planner.remoteEstimateNanos())
+        planner.onTimeout(RemoteRenderPlanner.REPROBE_NANOS)
+        assertFalse(planner.useRemote(10_000 * ms, RemoteRenderPlanner.REPROBE_NANOS + 1))
+    }
+}
@@ -0,0 +1,44 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+
+import org.junit.Assert.*
+
+class RenderTargetCalculatorTest {
+
+    // A4 in PDF points
+    private val a4Width = 595
+    private val a4Height = 842
+
+    @Test
+    fun fitsPageInsideView() {
+        val target = RenderTargetCalculator().targetFor(a4Width, a4Height, 1080, 2200)
+
+        assertEquals(1080, target.width)
+        assertTrue(target.height <= 2200)
+        assertEquals(a4Width.toDouble() / a4Height, target.width.toDouble() / target.height, 0.01)
+    }
+
+    @Test
+    fun qualityFactorScalesTarget() {
+        val target = RenderTargetCalculator(qualityFactor = 1.5f).targetFor(a4Width, a4Height, 1000, 5000)
+
+        assertEquals(1500, target.width)
+    }
+
+    @Test
+    fun staysUnderPixelBudget() {
+        // A0 poster on a large tablet
+        val target = RenderTargetCalculator(maxPixels = 1_000_000).targetFor(2384, 3370, 2560, 3000)
+
+        assertTrue(target.width.toLong() * target.height <= 1_000_000)
+        assertEquals(2384.0 / 3370, target.width.toDouble() / target.height, 0.01)
+    }
+
+    @Test
+    fun unmeasuredViewFallsBackToDoublePageSize() {
+        val target = RenderTargetCalculator().targetFor(a4Width, a4Height, 0, 0)
+
+        assertEquals(RenderTargetCalculator.Target(a4Width * 2, a4Height * 2), target)
+    }
+}
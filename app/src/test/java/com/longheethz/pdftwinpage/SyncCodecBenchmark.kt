@@ -0,0 +1,88 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+import org.junit.Assert.*
+
+/**
+ * Compares the framed binary codec with the old "PAGE_CHANGE:n" string path.
+ * Prints throughput and bytes allocated per decoded message.
+ */
+class SyncCodecBenchmark {
+
+    private val messages = 200_000
+
+    @Test
+    fun binaryVersusStringDecoding() {
+        // Warm both paths up before measuring
+        decodeStrings(encodeStrings())
+        decodeFrames(encodeFrames())
+
+        val strings = encodeStrings()
+        val stringResult = measure { decodeStrings(strings) }
+
+        val frames = encodeFrames()
+        val frameResult = measure { decodeFrames(frames) }
+
+        assertEquals(stringResult.checksum, frameResult.checksum)
+
+        println("DEBUG: String path: ${stringResult.report()}")
+        println("DEBUG: Binary path: ${frameResult.report()}")
+    }
+
+    private class Result(val checksum: Long, val nanos: Long, val allocatedBytes: Long, val count: Int) {
+        fun report(): String {
+            val perSecond = count * 1_000_000_000.0 / nanos
+            return String.format("%.0f msgs/s, %.1f bytes allocated/msg", perSecond, allocatedBytes.toDouble() / count)
+        }
+    }
+
+    private fun measure(block: () -> Long): Result {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        val allocatedBefore = threads.getThreadAllocatedBytes(threadId)
+        val start = System.nanoTime()
+        val checksum = block()
+        val nanos = System.nanoTime() - start
+        val allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore
+        return Result(checksum, nanos, allocated, messages)
+    }
+
+    private fun encodeStrings(): List<ByteArray> = List(messages) { "PAGE_CHANGE:${it % 500}".toByteArray() }
+
+    // What ConnectedThread used to do with every read
+    private fun decodeStrings(reads: List<ByteArray>): Long {
+        var checksum = 0L
+        for (read in reads) {
+            val message = String(read, 0, read.size).trim()
+            if (message.startsWith("PAGE_CHANGE:")) {
+                checksum += message.substringAfter("PAGE_CHANGE:").toIntOrNull() ?: 0
+            }
+        }
+        return checksum
+    }
+
+    private fun encodeFrames(): ByteArray {
+        val encoder = SyncCodec.Encoder()
+        val stream = java.io.ByteArrayOutputStream()
+        for (i in 0 until messages) {
+            stream.write(encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, (i % 500).toLong()))
+        }
+        return stream.toByteArray()
+    }
+
+    // Fed in 1024-byte reads, like the socket would deliver a busy stream
+    private fun decodeFrames(stream: ByteArray): Long {
+        var checksum = 0L
+        val decoder = SyncCodec.Decoder()
+        val listener = SyncCodec.FrameListener { _, _, payload -> checksum += payload.readVarint() }
+        var offset = 0
+        while (offset < stream.size) {
+            val length = minOf(1024, stream.size - offset)
+            decoder.feed(stream, offset, length, listener)
+            offset += length
+        }
+        return checksum
+    }
+}
@@ -0,0 +1,81 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.net.ProtocolException
+
+import org.junit.Assert.*
+
+class SyncCodecTest {
+
+    private class Received(val type: Int, val sequence: Long, val value: Any)
+
+    private fun collector(into: MutableList<Received>) = SyncCodec.FrameListener { type, sequence, payload ->
+        val value: Any = if (type == SyncCodec.TYPE_MODE_CHANGE) payload.readString() else payload.readInt()
+        into.add(Received(type, sequence, value))
+    }
+
+    @Test
+    fun twoFramesInOneRead() {
+        val encoder = SyncCodec.Encoder()
+        val bytes = encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, 4) +
+                encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, 6)
+
+        val received = ArrayList<Received>()
+        SyncCodec.Decoder().feed(bytes, 0, bytes.size, collector(received))
+
+        assertEquals(listOf(4, 6), received.map { it.value })
+        assertEquals(listOf(0L, 1L), received.map { it.sequence })
+    }
+
+    @Test
+    fun frameSplitAcrossReads() {
+        val encoder = SyncCodec.Encoder()
+        val bytes = encoder.encodeString(SyncCodec.TYPE_MODE_CHANGE, SettingsActivity.MODE_SEQUENTIAL) +
+                encoder.encodeVarints(SyncCodec.TYPE_PDF_LOADED, 300)
+
+        val received = ArrayList<Received>()
+        val decoder = SyncCodec.Decoder(8)
+        val listener = collector(received)
+        for (i in bytes.indices) {
+            decoder.feed(bytes, i, 1, listener)
+        }
+
+        assertEquals(2, received.size)
+        assertEquals(SettingsActivity.MODE_SEQUENTIAL, received[0].value)
+        assertEquals(SyncCodec.TYPE_PDF_LOADED, received[1].type)
+        assertEquals(300, received[1].value)
+    }
+
+    @Test
+    fun payloadLargerThanBuffer() {
+        val data = ByteArray(100_000) { it.toByte() }
+        val frame = SyncCodec.Encoder().encode(SyncCodec.TYPE_PDF_LOADED, data, 0, data.size)
+
+        var copy: ByteArray? = null
+        val decoder = SyncCodec.Decoder(16)
+        var offset = 0
+        while (offset < frame.size) {
+            val length = minOf(1000, frame.size - offset)
+            decoder.feed(frame, offset, length) { _, _, payload ->
+                copy = ByteArray(payload.remaining()).also { payload.readBytes(it, 0, it.size) }
+            }
+            offset += length
+        }
+
+        assertArrayEquals(data, copy)
+    }
+
+    @Test(expected = ProtocolException::class)
+    fun rejectsOldTextProtocol() {
+        val bytes = "PAGE_CHANGE:4".toByteArray()
+        SyncCodec.Decoder().feed(bytes, 0, bytes.size) { _, _, _ -> }
+    }
+
+    @Test(expected = ProtocolException::class)
+    fun rejectsEndlessVarint() {
+        // A sequence number that never ends must close the link, not wait for more bytes
+        val bytes = byteArrayOf(SyncCodec.MAGIC.toByte(), SyncCodec.VERSION.toByte(), SyncCodec.TYPE_PAGE_CHANGE.toByte()) +
+            ByteArray(10) { 0x80.toByte() }
+        SyncCodec.Decoder().feed(bytes, 0, bytes.size) { _, _, _ -> }
+    }
+}
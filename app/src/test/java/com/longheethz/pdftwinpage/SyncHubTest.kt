@@ -0,0 +1,140 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+import org.junit.Assert.*
+
+class SyncHubTest {
+
+    private val encoder = SyncCodec.Encoder()
+
+    // A client on the far end of one pipe, collecting the anchors it is sent
+    private class Client(transport: SyncTransport) : SyncConnection.Listener {
+        val anchors = LinkedBlockingQueue<Int>()
+        val connection = SyncConnection(transport, 16, this)
+
+        override fun onFrame(type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {
+            if (type == SyncCodec.TYPE_PAGE_CHANGE) anchors.add(payload.readInt())
+        }
+
+        override fun onDisconnected(cause: IOException?) {}
+    }
+
+    private class Removals : SyncHub.Listener {
+        val removed = CountDownLatch(1)
+        @Volatile var cause: IOException? = null
+
+        override fun onFrame(peer: SyncHub.Peer, type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {}
+
+        override fun onPeerRemoved(peer: SyncHub.Peer, cause: IOException?) {
+            this.cause = cause
+            removed.countDown()
+        }
+    }
+
+    private fun link(hub: SyncHub): Pair<SyncHub.Peer, Client> {
+        val (near, far) = PipedSyncTransport.pair()
+        val peer = hub.add(near)
+        peer.connection().start()
+        val client = Client(far)
+        client.connection.start()
+        return peer to client
+    }
+
+    @Test
+    fun slotsAreTheSmallestFree() {
+        val removals = Removals()
+        val hub = SyncHub(16, true, removals)
+        val (first, firstClient) = link(hub)
+        val (second, _) = link(hub)
+        assertEquals(1, first.slot)
+        assertEquals(2, second.slot)
+        assertEquals(3, hub.spreadWidth())
+
+        firstClient.connection.close()
+        assertTrue(removals.removed.await(5, TimeUnit.SECONDS))
+        assertEquals(3, hub.spreadWidth())
+
+        // The freed slot is handed out again
+        val (third, _) = link(hub)
+        assertEquals(1, third.slot)
+        hub.close()
+    }
+
+    @Test
+    fun broadcastReachesEveryoneButTheSender() {
+        val hub = SyncHub(16, true, Removals())
+        val (sender, senderClient) = link(hub)
+        val (_, other) = link(hub)
+        val (_, another) = link(hub)
+
+        val frame = encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, 4, 1, 1, 0)
+        assertEquals(0, hub.broadcast(frame, SyncCodec.TYPE_PAGE_CHANGE, sender))
+
+        assertEquals(4, other.anchors.poll(5, TimeUnit.SECONDS))
+        assertEquals(4, another.anchors.poll(5, TimeUnit.SECONDS))
+        assertNull(senderClient.anchors.poll(200, TimeUnit.MILLISECONDS))
+        hub.close()
+    }
+
+    @Test
+    fun closeSendsWhatIsQueuedFirst() {
+        val hub = SyncHub(16, true, Removals())
+        val (peer, client) = link(hub)
+
+        peer.send(encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, 6, 1, 1, 0), SyncCodec.TYPE_PAGE_CHANGE)
+        hub.close()
+
+        assertEquals(6, client.anchors.poll(5, TimeUnit.SECONDS))
+        val deadline = System.nanoTime() + 5_000_000_000L
+        while (peer.connection().state != SyncConnection.State.CLOSED && System.nanoTime() < deadline) Thread.sleep(10)
+        assertEquals(SyncConnection.State.CLOSED, peer.connection().state)
+    }
+
+    @Test
+    fun closedHubStaysQuiet() {
+        val removals = Removals()
+        val hub = SyncHub(16, true, removals)
+        val (_, client) = link(hub)
+
+        // The other side hangs up while our side drains; whoever listened has moved on
+        hub.close()
+        client.connection.close()
+        assertFalse(removals.removed.await(300, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun heartbeatsMeasureRoundTrips() {
+        val hub = SyncHub(16, true, Removals(), 50, 2000)
+        val (near, far) = PipedSyncTransport.pair()
+        val peer = hub.add(near)
+        peer.connection().start()
+        // The far end answers pings with its own hub
+        val client = SyncHub(16, false, Removals(), 50, 2000)
+        client.add(far).connection().start()
+
+        val deadline = System.nanoTime() + 5_000_000_000L
+        while (peer.rttNanos() < 0 && System.nanoTime() < deadline) Thread.sleep(10)
+        assertTrue(peer.rttNanos() >= 0)
+        client.close()
+        hub.close()
+    }
+
+    @Test
+    fun silentLinkIsDropped() {
+        val removals = Removals()
+        val hub = SyncHub(16, true, removals, 50, 300)
+        // Nobody reads or answers on the far end, like a device that walked out of range
+        val (near, _) = PipedSyncTransport.pair()
+        hub.add(near).connection().start()
+
+        assertTrue(removals.removed.await(5, TimeUnit.SECONDS))
+        assertNotNull(removals.cause)
+        assertTrue(hub.isEmpty())
+        hub.close()
+    }
+}
@@ -0,0 +1,187 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+import org.junit.Assert.*
+
+/**
+ * Two simulated readers turning pages over an impaired link, running the same
+ * page-sync logic as MainActivity (PageSyncState over a SyncConnection).
+ *
+ * For each scenario this prints how long the devices took to agree after the last
+ * tap and how many wrong spreads were shown. A spread is wrong when the session had
+ * already moved past it: it isn't the newest (version, origin) issued so far.
+ */
+class SyncImpairmentScenarioTest {
+
+    private val taps = 24
+
+    @Test
+    fun cleanLink() {
+        val result = runScenario("clean", ImpairedSyncTransport.Impairment())
+        assertTrue(result.converged)
+    }
+
+    @Test
+    fun typicalBluetooth() {
+        val impairment = ImpairedSyncTransport.Impairment()
+            .latency(ImpairedSyncTransport.uniform(8, 25))
+            .bandwidth(20_000)
+        assertTrue(runScenario("typical bluetooth", impairment).converged)
+    }
+
+    @Test
+    fun crowdedHallJitter() {
+        val impairment = ImpairedSyncTransport.Impairment()
+            .latency(ImpairedSyncTransport.spiky(ImpairedSyncTransport.exponential(10, 40), 0.05, 300))
+        assertTrue(runScenario("crowded hall", impairment).converged)
+    }
+
+    @Test
+    fun stallingLink() {
+        val impairment = ImpairedSyncTransport.Impairment()
+            .latency(ImpairedSyncTransport.constant(15))
+            .stalls(0.1, 400)
+        assertTrue(runScenario("stalls", impairment).converged)
+    }
+
+    @Test
+    fun tinyBandwidth() {
+        // Each PAGE_CHANGE frame is ~10 bytes, so this is ~30 frames/s
+        val impairment = ImpairedSyncTransport.Impairment()
+            .latency(ImpairedSyncTransport.constant(20))
+            .bandwidth(300)
+        assertTrue(runScenario("300 B/s", impairment).converged)
+    }
+
+    @Test
+    fun disconnectIsReportedOnBothSides() {
+        val impairment = ImpairedSyncTransport.Impairment()
+            .latency(ImpairedSyncTransport.constant(10))
+            .disconnectAfter(300)
+        val result = runScenario("disconnect", impairment)
+        assertTrue(result.bothDisconnected)
+    }
+
+    private class Result(val converged: Boolean, val bothDisconnected: Boolean)
+
+    // Newest update issued anywhere, the state both devices must end up showing
+    private class Truth {
+        private var best: PageSyncState.Update? = null
+
+        @Synchronized
+        fun issued(update: PageSyncState.Update) {
+            val current = best
+            if (current == null || update.version > current.version ||
+                (update.version == current.version && update.origin > current.origin)
+            ) {
+                best = update
+            }
+        }
+
+        @Synchronized
+        fun isCurrent(update: PageSyncState.Update): Boolean {
+            val current = best ?: return true
+            return update.version == current.version && update.origin == current.origin
+        }
+
+        @Synchronized
+        fun anchor(): Int = best?.anchor ?: 0
+    }
+
+    private class SimulatedReader(
+        deviceId: Int,
+        transport: SyncTransport,
+        private val truth: Truth,
+        private val disconnected: CountDownLatch
+    ) : SyncConnection.Listener {
+        val state = PageSyncState(deviceId)
+        private val encoder = SyncCodec.Encoder()
+        private val connection = SyncConnection(transport, 64, this)
+        @Volatile var shownAnchor = 0
+        var wrongPages = 0
+            private set
+
+        fun start() = connection.start()
+
+        fun close() = connection.close()
+
+        // What a tap does in MainActivity.showPage
+        @Synchronized
+        fun tap(step: Int) {
+            val update = state.localTurn(maxOf(0, state.anchor() + step))
+            truth.issued(update)
+            show(update)
+            val payload = SyncCodec.PayloadWriter()
+            update.writeTo(payload)
+            payload.writeVarint(0L)
+            connection.send(encoder.encode(SyncCodec.TYPE_PAGE_CHANGE, payload), SyncCodec.TYPE_PAGE_CHANGE)
+        }
+
+        // What MainActivity.handleReceivedMessage does with a PAGE_CHANGE
+        @Synchronized
+        override fun onFrame(type: Int, sequence: Long, payload: SyncCodec.PayloadReader) {
+            if (type != SyncCodec.TYPE_PAGE_CHANGE) return
+            val update = PageSyncState.Update.readFrom(payload)
+            payload.readVarint() // Flip time, unused here
+            if (state.applyRemote(update)) {
+                show(state.current())
+            }
+        }
+
+        override fun onDisconnected(cause: IOException?) {
+            disconnected.countDown()
+        }
+
+        private fun show(update: PageSyncState.Update) {
+            if (update.anchor != shownAnchor && !truth.isCurrent(update)) wrongPages++
+            shownAnchor = update.anchor
+        }
+    }
+
+    private fun runScenario(name: String, impairment: ImpairedSyncTransport.Impairment): Result {
+        val (a, b) = PipedSyncTransport.pair()
+        val truth = Truth()
+        val disconnected = CountDownLatch(2)
+        val left = SimulatedReader(0, ImpairedSyncTransport(a, impairment, 1), truth, disconnected)
+        val right = SimulatedReader(1, ImpairedSyncTransport(b, impairment, 2), truth, disconnected)
+        left.start()
+        right.start()
+
+        // Mostly the right player turning forward, the left one now and then going back,
+        // sometimes both within a few milliseconds of each other
+        val random = Random(42)
+        repeat(taps) {
+            if (random.nextInt(4) == 0) left.tap(-2) else right.tap(2)
+            if (random.nextInt(6) == 0) left.tap(-2)
+            Thread.sleep(random.nextLong(5, 120))
+        }
+
+        val lastTap = System.nanoTime()
+        val deadline = lastTap + 10_000_000_000L
+        var converged = false
+        while (System.nanoTime() < deadline && disconnected.count == 2L) {
+            val target = truth.anchor()
+            if (left.shownAnchor == target && right.shownAnchor == target) {
+                converged = true
+                break
+            }
+            Thread.sleep(1)
+        }
+        val convergeMillis = (System.nanoTime() - lastTap) / 1_000_000
+
+        val bothDisconnected = if (impairment.disconnectAfterMillis >= 0) disconnected.await(5, TimeUnit.SECONDS) else false
+        left.close()
+        right.close()
+
+        println("DEBUG: Scenario $name: " +
+                (if (converged) "converged ${convergeMillis}ms after last tap" else "did not converge") +
+                ", wrong pages left=${left.wrongPages} right=${right.wrongPages}" +
+                (if (bothDisconnected) ", disconnect seen on both sides" else ""))
+        return Result(converged, bothDisconnected)
+    }
+}
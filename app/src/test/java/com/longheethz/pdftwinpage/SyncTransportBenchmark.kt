@@ -0,0 +1,92 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import org.junit.Assert.*
+
+/**
+ * Round-trip latency and bulk throughput of the full sync stack (codec, writer,
+ * reader thread) over each JVM transport. Bluetooth needs two phones and isn't here.
+ */
+class SyncTransportBenchmark {
+
+    private val pings = 2_000
+    private val bulkFrames = 1_000
+    private val bulkFrameBytes = 16 * 1024
+    private val bulkType = 99
+
+    @Test
+    fun pipedTransport() {
+        val (a, b) = PipedSyncTransport.pair()
+        run("pipe", a, b)
+    }
+
+    @Test
+    fun tcpLoopbackTransport() {
+        val (a, b) = TcpSyncTransport.loopbackPair()
+        run("tcp loopback", a, b)
+    }
+
+    private fun run(name: String, a: SyncTransport, b: SyncTransport) {
+        val replies = ArrayBlockingQueue<Long>(1)
+        val bulkBytes = AtomicLong()
+        val bulkDone = CountDownLatch(bulkFrames)
+        val encoderB = SyncCodec.Encoder()
+        lateinit var sideB: SyncConnection
+
+        val sideA = SyncConnection(a, 64, listener { type, payload ->
+            if (type == SyncCodec.TYPE_PAGE_CHANGE) replies.put(payload.readVarint())
+        })
+        sideB = SyncConnection(b, 64, listener { type, payload ->
+            when (type) {
+                // Echo pings straight back
+                SyncCodec.TYPE_PAGE_CHANGE -> sideB.send(encoderB.encodeVarints(type, payload.readVarint()))
+                bulkType -> {
+                    bulkBytes.addAndGet(payload.remaining().toLong())
+                    bulkDone.countDown()
+                }
+            }
+        })
+        sideA.start()
+        sideB.start()
+
+        try {
+            val encoderA = SyncCodec.Encoder()
+            val roundTrips = LongArray(pings)
+            for (i in 0 until pings) {
+                val start = System.nanoTime()
+                assertTrue(sideA.send(encoderA.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, i.toLong())))
+                assertEquals(i.toLong(), replies.poll(5, TimeUnit.SECONDS))
+                roundTrips[i] = System.nanoTime() - start
+            }
+            roundTrips.sort()
+
+            val chunk = ByteArray(bulkFrameBytes) { it.toByte() }
+            val start = System.nanoTime()
+            repeat(bulkFrames) {
+                assertTrue(sideA.sendBlocking(encoderA.encode(bulkType, chunk, 0, chunk.size)))
+            }
+            assertTrue(bulkDone.await(60, TimeUnit.SECONDS))
+            val seconds = (System.nanoTime() - start) / 1_000_000_000.0
+            assertEquals(bulkFrames.toLong() * bulkFrameBytes, bulkBytes.get())
+
+            println("DEBUG: $name: rtt p50=${roundTrips[pings / 2] / 1000}us " +
+                    "p99=${roundTrips[pings * 99 / 100] / 1000}us, " +
+                    String.format("%.1f MB/s", bulkBytes.get() / seconds / (1024 * 1024)))
+        } finally {
+            sideA.close()
+            sideB.close()
+        }
+    }
+
+    private fun listener(onFrame: (Int, SyncCodec.PayloadReader) -> Unit) = object : SyncConnection.Listener {
+        override fun onFrame(type: Int, sequence: Long, payload: SyncCodec.PayloadReader) = onFrame(type, payload)
+
+        override fun onDisconnected(cause: IOException?) {}
+    }
+}
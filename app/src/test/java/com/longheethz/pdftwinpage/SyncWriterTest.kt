@@ -0,0 +1,161 @@
+package com.longheethz.pdftwinpage
+
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+import org.junit.Assert.*
+
+class SyncWriterTest {
+
+    private val encoder = SyncCodec.Encoder()
+
+    // Holds the writer in its first write until opened, so frames pile up behind it
+    private class GatedStream : OutputStream() {
+        val open = CountDownLatch(1)
+        val writing = CountDownLatch(1)
+        val writeSizes = ArrayList<Int>()
+        val bytes = ByteArrayOutputStream()
+        @Volatile var flushes = 0
+
+        override fun write(b: Int) = write(byteArrayOf(b.toByte()), 0, 1)
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            writing.countDown()
+            open.await()
+            synchronized(this) {
+                writeSizes.add(len)
+                bytes.write(b, off, len)
+            }
+        }
+
+        override fun flush() {
+            flushes++
+        }
+    }
+
+    // Sends one frame and waits until the writer is stuck writing it
+    private fun stall(stream: GatedStream, writer: SyncWriter) {
+        assertTrue(writer.send(frame(0)))
+        assertTrue(stream.writing.await(5, TimeUnit.SECONDS))
+    }
+
+    private fun frame(value: Int) = encoder.encodeVarints(SyncCodec.TYPE_PAGE_CHANGE, value.toLong())
+
+    private fun bulkFrame(value: Int, size: Int): ByteArray {
+        val payload = SyncCodec.PayloadWriter()
+        payload.writeVarint(value.toLong())
+        payload.writeBytes(ByteArray(size), 0, size)
+        return encoder.encode(SyncCodec.TYPE_DOC_CHUNK, payload)
+    }
+
+    // First varint of every frame, in the order they were written
+    private fun written(stream: GatedStream): List<Int> {
+        val bytes = stream.bytes.toByteArray()
+        val values = ArrayList<Int>()
+        SyncCodec.Decoder().feed(bytes, 0, bytes.size) { _, _, payload -> values.add(payload.readInt()) }
+        return values
+    }
+
+    @Test
+    fun coalescedFrameReplacesQueuedOne() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 16, null)
+        stall(stream, writer)
+
+        assertTrue(writer.send(frame(1), SyncCodec.TYPE_PAGE_CHANGE))
+        assertTrue(writer.send(frame(2), SyncCodec.TYPE_PAGE_CHANGE))
+        assertTrue(writer.send(frame(3)))
+        assertEquals(2, writer.queueDepth())
+
+        stream.open.countDown()
+        assertTrue(writer.drain(5000))
+        // The replacement goes to the back, so sequence numbers still leave in order
+        assertEquals(listOf(0, 2, 3), written(stream))
+        assertTrue(writer.stats().contains("coalesced=1"))
+    }
+
+    @Test
+    fun queuedFramesGoOutInOneFlush() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 16, null)
+        stall(stream, writer)
+        for (i in 1..5) assertTrue(writer.send(frame(i)))
+
+        stream.open.countDown()
+        assertTrue(writer.drain(5000))
+        assertEquals(listOf(0, 1, 2, 3, 4, 5), written(stream))
+        assertEquals(2, stream.writeSizes.size)
+        assertEquals(2, stream.flushes)
+    }
+
+    @Test
+    fun fullQueueDropsFrames() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 2, null)
+        stall(stream, writer)
+
+        assertTrue(writer.send(frame(1), SyncCodec.TYPE_PAGE_CHANGE))
+        assertTrue(writer.send(frame(2)))
+        assertFalse(writer.send(frame(3)))
+        // Replacing a queued frame needs no room
+        assertTrue(writer.send(frame(4), SyncCodec.TYPE_PAGE_CHANGE))
+
+        stream.open.countDown()
+        assertTrue(writer.drain(5000))
+        assertEquals(listOf(0, 2, 4), written(stream))
+        assertTrue(writer.stats().contains("dropped=1"))
+    }
+
+    @Test
+    fun sendBlockingWaitsForRoom() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 1, null)
+        stall(stream, writer)
+        assertTrue(writer.sendBlocking(bulkFrame(1, 16)))
+
+        val queued = CountDownLatch(1)
+        thread {
+            if (writer.sendBlocking(bulkFrame(2, 16))) queued.countDown()
+        }
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS))
+
+        stream.open.countDown()
+        assertTrue(queued.await(5, TimeUnit.SECONDS))
+        assertTrue(writer.drain(5000))
+        assertEquals(listOf(0, 1, 2), written(stream))
+    }
+
+    @Test
+    fun controlFramesGoBeforeBulk() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 16, null)
+        stall(stream, writer)
+
+        assertTrue(writer.sendBlocking(bulkFrame(1, 16)))
+        assertTrue(writer.sendBlocking(bulkFrame(2, 16)))
+        assertTrue(writer.send(frame(3)))
+
+        stream.open.countDown()
+        assertTrue(writer.drain(5000))
+        assertEquals(listOf(0, 3, 1, 2), written(stream))
+    }
+
+    @Test
+    fun bulkWritesAreCapped() {
+        val stream = GatedStream()
+        val writer = SyncWriter(stream, 16, null)
+        stall(stream, writer)
+        for (i in 1..4) assertTrue(writer.sendBlocking(bulkFrame(i, 12 * 1024)))
+
+        stream.open.countDown()
+        assertTrue(writer.drain(5000))
+        assertEquals(listOf(0, 1, 2, 3, 4), written(stream))
+        // Two chunks fit in 32 KB, so a control frame never waits behind more than that
+        assertEquals(3, stream.writeSizes.size)
+        assertTrue(stream.writeSizes.all { it <= 32 * 1024 })
+    }
+}